@@ -0,0 +1,54 @@
+package org.runaway.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runaway.exception.Breadcrumbs;
+
+/**
+ * Happy path cost of Breadcrumbs.crumb(), compared with ThreadLocal.get() it relies on.
+ * It should allocate nothing, see gc.alloc.rate.norm of -prof gc.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BreadcrumbBenchmark {
+
+  private static final ThreadLocal<long[]> LOCAL = ThreadLocal.withInitial(() -> new long[1]);
+
+  private final String value = "order";
+
+  private int counter = 0;
+
+  @Benchmark
+  public void threadLocal() {
+    LOCAL.get()[0] = ++counter;
+  }
+
+  @Benchmark
+  public void crumbInt() {
+    Breadcrumbs.crumb("orderId", ++counter);
+  }
+
+  @Benchmark
+  public void crumbLong() {
+    Breadcrumbs.crumb("orderId", (long) ++counter);
+  }
+
+  @Benchmark
+  public void crumbObject() {
+    Breadcrumbs.crumb("order", value);
+  }
+
+}
@@ -0,0 +1,96 @@
+package org.runaway.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runaway.exception.RunawayException;
+
+/**
+ * Cost of new RunawayException and of RunawayException.of() compared with
+ * plain RuntimeException, at different stack depths.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConstructionBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int depth;
+
+  private RuntimeException cause;
+
+  /**
+   * Exception created by this thread, of() returns it as is.
+   */
+
+  private RunawayException own;
+
+  /**
+   * Exception created by another thread, of() creates new exception with it as cause.
+   */
+
+  private RunawayException foreign;
+
+  private final Supplier<RuntimeException> newRuntime = () -> new RuntimeException("message");
+
+  private final Supplier<RunawayException> newRunaway = () -> new RunawayException("message");
+
+  private final Supplier<RunawayException> ofThrowable = () -> RunawayException.of(cause);
+
+  private final Supplier<RunawayException> ofOwn = () -> RunawayException.of(own);
+
+  private final Supplier<RunawayException> ofForeign = () -> RunawayException.of(foreign);
+
+  @Setup
+  public void setUp() throws InterruptedException {
+    cause = Stacks.atDepth(depth, () -> new RuntimeException("cause"));
+    own = Stacks.atDepth(depth, () -> new RunawayException("own"));
+
+    RunawayException[] created = new RunawayException[1];
+    Thread thread = new Thread(() -> created[0] = Stacks.atDepth(depth,
+        () -> new RunawayException("foreign")));
+    thread.start();
+    thread.join();
+    foreign = created[0];
+  }
+
+  @Benchmark
+  public RuntimeException runtimeException() {
+    return Stacks.atDepth(depth, newRuntime);
+  }
+
+  @Benchmark
+  public RunawayException runawayException() {
+    return Stacks.atDepth(depth, newRunaway);
+  }
+
+  @Benchmark
+  public RunawayException ofThrowable() {
+    return Stacks.atDepth(depth, ofThrowable);
+  }
+
+  @Benchmark
+  public RunawayException ofSameThread() {
+    return Stacks.atDepth(depth, ofOwn);
+  }
+
+  @Benchmark
+  public RunawayException ofAnotherThread() {
+    return Stacks.atDepth(depth, ofForeign);
+  }
+
+}
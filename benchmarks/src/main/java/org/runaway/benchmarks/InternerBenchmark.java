@@ -0,0 +1,115 @@
+package org.runaway.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runaway.exception.CapturePolicies;
+import org.runaway.exception.CapturePolicy;
+import org.runaway.exception.RunawayException;
+
+/**
+ * Cost of interning stack frames of new exceptions, see CapturePolicy.isInterningFrames().
+ *
+ * <p>Heap retained by 10k exceptions of the same origin, with and without interning,
+ * is printed by main():
+ * {@code java -XX:+UseSerialGC -cp target/benchmarks.jar org.runaway.benchmarks.InternerBenchmark}.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InternerBenchmark {
+
+  /**
+   * Number of exceptions retained by main().
+   */
+
+  private static final int RETAINED = 10_000;
+
+  @Param({"10", "50", "200"})
+  public int depth;
+
+  @Param({"false", "true"})
+  public boolean intern;
+
+  private final Supplier<RunawayException> newRunaway = () -> new RunawayException("message");
+
+  @Setup
+  public void setUp() {
+    boolean interning = intern;
+    CapturePolicies.setPolicy(new CapturePolicy() {
+      @Override
+      public boolean isInterningFrames() {
+        return interning;
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() {
+    CapturePolicies.setPolicy(null);
+  }
+
+  @Benchmark
+  public RunawayException runawayException() {
+    return Stacks.atDepth(depth, newRunaway);
+  }
+
+  /**
+   * Print heap retained by RETAINED exceptions of each benchmark case, in KB.
+   * Used heap is measured after full GC, so run it with a stop-the-world collector.
+   * @param args not used.
+   */
+
+  public static void main(String[] args) {
+    System.out.println("depth intern retainedKB bytesPerException");
+    InternerBenchmark benchmark = new InternerBenchmark();
+    for (int depth: new int[] {10, 50, 200}) {
+      for (boolean intern: new boolean[] {false, true}) {
+        benchmark.depth = depth;
+        benchmark.intern = intern;
+        benchmark.setUp();
+        long retained = retainedBytes(benchmark);
+        benchmark.tearDown();
+        System.out.printf("%5d %6b %10d %17d%n", depth, intern, retained / 1024,
+            retained / RETAINED);
+      }
+    }
+  }
+
+  private static long retainedBytes(InternerBenchmark benchmark) {
+    // warm up, so code and class metadata are not counted
+    benchmark.runawayException();
+    RunawayException[] exceptions = new RunawayException[RETAINED];
+    long before = usedHeap();
+    for (int index = 0; index < RETAINED; index++) {
+      exceptions[index] = benchmark.runawayException();
+    }
+    long after = usedHeap();
+    // keep exceptions reachable until measured
+    return (exceptions[RETAINED - 1] == null) ? 0 : after - before;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int gc = 0; gc < 3; gc++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+}
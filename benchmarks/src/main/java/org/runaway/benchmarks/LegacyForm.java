@@ -0,0 +1,126 @@
+package org.runaway.benchmarks;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * LegacyForm is the shape of RunawayException serialized by default Java serialization,
+ * as it was before the compact format of FrameCodec: stack elements written next to
+ * Throwable stack trace, and frames with snapshots as objects with their own
+ * class descriptors - frame number, stack element and snapshots.
+ * It is used only to compare serialized size and time with the compact format.
+ */
+
+final class LegacyForm {
+
+  private LegacyForm() {
+  }
+
+  /**
+   * Create exception of legacy shape at the current stack,
+   * with snapshots of the most recent frame.
+   * @param snapshots number of snapshots, named and valued as in SerializationBenchmark.
+   * @return exception.
+   */
+
+  static LegacyException create(int snapshots) {
+    LegacyException exception = new LegacyException("message");
+    StackTraceElement[] stack = exception.getStackTrace();
+    exception.stackElements = stack;
+    if (snapshots > 0) {
+      exception.snappedFrames = new LegacyFrame[stack.length];
+      LegacySnapshots store = new LegacySnapshots(snapshots);
+      for (int index = 0; index < snapshots; index++) {
+        store.names[index] = "param" + index;
+        store.values[index] = "value " + index;
+      }
+      exception.snappedFrames[0] =
+          new LegacyFrame(new LegacyNumber(stack.length - 1), stack[0], store);
+    }
+    return exception;
+  }
+
+  static final class LegacyException extends RuntimeException {
+    private static final long serialVersionUID = 20030101L;
+
+    private final String className = RuntimeException.class.getName();
+
+    private String causeExceptionName = null;
+
+    private String causeExceptionMessage = null;
+
+    private final long threadId = Thread.currentThread().getId();
+
+    private StackTraceElement[] stackElements;
+
+    private int topFrame = 0;
+
+    private LegacyFrame[] snappedFrames = null;
+
+    private final UUID errorGuid = UUID.randomUUID();
+
+    private final int techSupportCode = 1234;
+
+    LegacyException(String message) {
+      super(message);
+    }
+  }
+
+  static final class LegacyFrame implements Serializable {
+    private static final long serialVersionUID = 20030101L;
+
+    private final LegacyNumber traceNumber;
+
+    private final StackTraceElement stackTraceElement;
+
+    private final LegacySnapshots snapshots;
+
+    LegacyFrame(LegacyNumber traceNumber, StackTraceElement stackTraceElement,
+        LegacySnapshots snapshots) {
+      this.traceNumber = traceNumber;
+      this.stackTraceElement = stackTraceElement;
+      this.snapshots = snapshots;
+    }
+  }
+
+  static final class LegacyNumber implements Serializable {
+    private static final long serialVersionUID = 20030101L;
+
+    private final int value;
+
+    LegacyNumber(int value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Snapshots written as the old SnapshotStore did: count, then name, type and value
+   * of each one, objects as strings.
+   */
+
+  static final class LegacySnapshots implements Serializable {
+    private static final long serialVersionUID = 20030101L;
+
+    private final transient String[] names;
+
+    private final transient String[] values;
+
+    LegacySnapshots(int size) {
+      names = new String[size];
+      values = new String[size];
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.defaultWriteObject();
+      out.writeInt(names.length);
+      for (int index = 0; index < names.length; index++) {
+        out.writeObject(names[index]);
+        out.writeByte(1);
+        out.writeObject(values[index]);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+package org.runaway.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runaway.exception.JsonEncoder;
+import org.runaway.exception.RunawayException;
+
+/**
+ * Cost of rendering exception with snapshots: toString() of a new exception,
+ * repeated toString() which returns the kept string, and JSON.
+ * Rendering by writeTo() is not kept unless toString() was called,
+ * so it measures toString() of a new exception.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int depth;
+
+  @Param({"0", "8", "32"})
+  public int snapshots;
+
+  private RunawayException exception;
+
+  private RuntimeException runtimeException;
+
+  private final StringBuilder builder = new StringBuilder();
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+  @Setup
+  public void setUp() {
+    exception = Stacks.atDepth(depth, () -> {
+      RunawayException re = new RunawayException("message");
+      for (int index = 0; index < snapshots; index++) {
+        if (index % 2 == 0) {
+          re.snap("param" + index, "value " + index);
+        } else {
+          re.snap("param" + index, index);
+        }
+      }
+      return re;
+    });
+    runtimeException = Stacks.atDepth(depth, () -> new RuntimeException("message"));
+  }
+
+  @Benchmark
+  public int render() throws IOException {
+    builder.setLength(0);
+    exception.writeTo(builder);
+    return builder.length();
+  }
+
+  @Benchmark
+  public String renderedToString() {
+    return exception.toString();
+  }
+
+  @Benchmark
+  public int json() throws IOException {
+    bytes.reset();
+    JsonEncoder.encode(exception, bytes);
+    return bytes.size();
+  }
+
+  /**
+   * Baseline - what printStackTrace() of RuntimeException has to render.
+   */
+
+  @Benchmark
+  public int runtimeExceptionStackTrace() {
+    builder.setLength(0);
+    builder.append(runtimeException);
+    for (StackTraceElement element: runtimeException.getStackTrace()) {
+      builder.append("\n\tat ").append(element);
+    }
+    return builder.length();
+  }
+
+}
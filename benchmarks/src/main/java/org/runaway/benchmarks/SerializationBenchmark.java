@@ -0,0 +1,115 @@
+package org.runaway.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runaway.exception.RunawayException;
+
+/**
+ * Cost of Java serialization round-trip - writeObject() and readObject() -
+ * of exception with snapshots, compared with the legacy default serialization
+ * of the same exception (see LegacyForm) and with RuntimeException.
+ *
+ * <p>Serialized sizes of the same cases are printed by main():
+ * {@code java -cp target/benchmarks.jar org.runaway.benchmarks.SerializationBenchmark}.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int depth;
+
+  @Param({"0", "8", "32"})
+  public int snapshots;
+
+  private RunawayException exception;
+
+  private RuntimeException runtimeException;
+
+  private RuntimeException legacyException;
+
+  @Setup
+  public void setUp() {
+    exception = Stacks.atDepth(depth, () -> {
+      RunawayException re = new RunawayException("message");
+      for (int index = 0; index < snapshots; index++) {
+        re.snap("param" + index, "value " + index);
+      }
+      return re;
+    });
+    runtimeException = Stacks.atDepth(depth, () -> new RuntimeException("message"));
+    legacyException = Stacks.atDepth(depth, () -> LegacyForm.create(snapshots));
+  }
+
+  @Benchmark
+  public Object runawayException() throws IOException, ClassNotFoundException {
+    return roundTrip(exception);
+  }
+
+  @Benchmark
+  public Object legacyFormat() throws IOException, ClassNotFoundException {
+    return roundTrip(legacyException);
+  }
+
+  @Benchmark
+  public Object runtimeException() throws IOException, ClassNotFoundException {
+    return roundTrip(runtimeException);
+  }
+
+  /**
+   * Print serialized size of each benchmark case, in bytes.
+   * @param args not used.
+   * @throws IOException should not be thrown.
+   */
+
+  public static void main(String[] args) throws IOException {
+    System.out.println("depth snapshots runawayException legacyFormat runtimeException");
+    SerializationBenchmark benchmark = new SerializationBenchmark();
+    for (int depth: new int[] {10, 50, 200}) {
+      for (int snapshots: new int[] {0, 8, 32}) {
+        benchmark.depth = depth;
+        benchmark.snapshots = snapshots;
+        benchmark.setUp();
+        System.out.printf("%5d %9d %16d %12d %16d%n", depth, snapshots,
+            serialize(benchmark.exception).length, serialize(benchmark.legacyException).length,
+            serialize(benchmark.runtimeException).length);
+      }
+    }
+  }
+
+  private static Object roundTrip(Object value) throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(serialize(value)))) {
+      return in.readObject();
+    }
+  }
+
+  private static byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+
+}
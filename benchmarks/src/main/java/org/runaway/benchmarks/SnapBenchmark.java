@@ -0,0 +1,215 @@
+package org.runaway.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runaway.exception.RunawayException;
+import org.runaway.exception.SnapshotBatch;
+
+/**
+ * Cost of snap() overloads: each operation creates exception and adds given number
+ * of snapshots to the current frame, so construction cost (see "none") is included.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int depth;
+
+  @Param({"1", "8", "32"})
+  public int snapshots;
+
+  private String[] names;
+
+  private final Object object = new StringBuilder("value");
+
+  private final Supplier<String> supplier = () -> "value";
+
+  private final Supplier<RunawayException> none = () -> new RunawayException("message");
+
+  private final Supplier<RunawayException> snapObject = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, object);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapSupplier = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, supplier);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapNow = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snapNow(name, object);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapInt = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, 54110);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapLong = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, 54110L);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapBoolean = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, true);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapDouble = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, 5.411);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapFloat = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, 5.411f);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapChar = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, 'c');
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapShort = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, (short) 541);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> snapByte = () -> {
+    RunawayException re = new RunawayException("message");
+    for (String name: names) {
+      re.snap(name, (byte) 54);
+    }
+    return re;
+  };
+
+  private final Supplier<RunawayException> batch = () -> {
+    SnapshotBatch at = new RunawayException("message").at();
+    for (String name: names) {
+      at.snap(name, object);
+    }
+    return at.commit();
+  };
+
+  @Setup
+  public void setUp() {
+    names = new String[snapshots];
+    for (int index = 0; index < snapshots; index++) {
+      names[index] = "param" + index;
+    }
+  }
+
+  @Benchmark
+  public RunawayException none() {
+    return Stacks.atDepth(depth, none);
+  }
+
+  @Benchmark
+  public RunawayException snapObject() {
+    return Stacks.atDepth(depth, snapObject);
+  }
+
+  @Benchmark
+  public RunawayException snapSupplier() {
+    return Stacks.atDepth(depth, snapSupplier);
+  }
+
+  @Benchmark
+  public RunawayException snapNow() {
+    return Stacks.atDepth(depth, snapNow);
+  }
+
+  @Benchmark
+  public RunawayException snapInt() {
+    return Stacks.atDepth(depth, snapInt);
+  }
+
+  @Benchmark
+  public RunawayException snapLong() {
+    return Stacks.atDepth(depth, snapLong);
+  }
+
+  @Benchmark
+  public RunawayException snapBoolean() {
+    return Stacks.atDepth(depth, snapBoolean);
+  }
+
+  @Benchmark
+  public RunawayException snapDouble() {
+    return Stacks.atDepth(depth, snapDouble);
+  }
+
+  @Benchmark
+  public RunawayException snapFloat() {
+    return Stacks.atDepth(depth, snapFloat);
+  }
+
+  @Benchmark
+  public RunawayException snapChar() {
+    return Stacks.atDepth(depth, snapChar);
+  }
+
+  @Benchmark
+  public RunawayException snapShort() {
+    return Stacks.atDepth(depth, snapShort);
+  }
+
+  @Benchmark
+  public RunawayException snapByte() {
+    return Stacks.atDepth(depth, snapByte);
+  }
+
+  @Benchmark
+  public RunawayException batch() {
+    return Stacks.atDepth(depth, batch);
+  }
+
+}
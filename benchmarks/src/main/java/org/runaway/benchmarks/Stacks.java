@@ -0,0 +1,26 @@
+package org.runaway.benchmarks;
+
+import java.util.function.Supplier;
+
+/**
+ * Stacks runs benchmarked code at given stack depth, so exceptions capture
+ * that many frames on top of JMH frames (about 10 more).
+ */
+
+final class Stacks {
+
+  private Stacks() {
+  }
+
+  /**
+   * Run action at given stack depth.
+   * @param depth number of frames to add.
+   * @param action benchmarked code, should not capture variables to avoid allocation.
+   * @return result of action.
+   */
+
+  static <T> T atDepth(int depth, Supplier<T> action) {
+    return (depth <= 0) ? action.get() : atDepth(depth - 1, action);
+  }
+
+}
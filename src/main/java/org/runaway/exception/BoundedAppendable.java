@@ -0,0 +1,85 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+
+/**
+ * BoundedAppendable passes up to limit chars to destination and then stops the writer
+ * by throwing LimitReached, so large values are never rendered beyond the limit,
+ * see SnapshotFormat.
+ */
+
+final class BoundedAppendable implements Appendable {
+
+  /**
+   * Thrown when the limit is reached, shared as it has no stack trace nor message.
+   */
+
+  static final class LimitReached extends RuntimeException {
+    private static final long serialVersionUID = 20030101L;
+
+    private LimitReached() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final LimitReached LIMIT_REACHED = new LimitReached();
+
+  private final Appendable out;
+
+  private final int limit;
+
+  private int length = 0;
+
+  /**
+   * Constructor.
+   * @param out destination.
+   * @param limit max number of chars passed to destination, not negative.
+   */
+
+  BoundedAppendable(Appendable out, int limit) {
+    this.out = out;
+    this.limit = limit;
+  }
+
+  @Override
+  public Appendable append(CharSequence csq) throws IOException {
+    CharSequence value = (csq == null) ? "null" : csq;
+    return append(value, 0, value.length());
+  }
+
+  @Override
+  public Appendable append(CharSequence csq, int start, int end) throws IOException {
+    if (csq == null) {
+      return append("null", start, end);
+    }
+    int room = limit - length;
+    if (end - start > room) {
+      out.append(csq, start, start + room);
+      length = limit;
+      throw LIMIT_REACHED;
+    }
+    out.append(csq, start, end);
+    length += end - start;
+    return this;
+  }
+
+  @Override
+  public Appendable append(char c) throws IOException {
+    if (length >= limit) {
+      throw LIMIT_REACHED;
+    }
+    out.append(c);
+    ++length;
+    return this;
+  }
+
+  /**
+   * Get number of chars passed to destination.
+   * @return length, up to limit.
+   */
+
+  int length() {
+    return length;
+  }
+
+}
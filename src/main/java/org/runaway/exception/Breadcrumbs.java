@@ -0,0 +1,179 @@
+package org.runaway.exception;
+
+/**
+ * Breadcrumbs keep a trail of the most recent [name x value] pairs of the current thread,
+ * known before an error but in code that never sees the exception:
+ * <pre>
+ *   Breadcrumbs.crumb("orderId", orderId);
+ *   ...
+ *   throw new RunawayException("Bad order"); // rendered with "Breadcrumbs: [orderId=5017]"
+ * </pre>
+ * New RunawayException copies the trail of its thread, the oldest crumb first.
+ *
+ * <p>The trail is a fixed-size ring of parallel arrays per thread, like SnapshotStore,
+ * so crumb() allocates nothing: primitive values are kept as long bits, objects as references
+ * converted to strings only when exception is rendered. The oldest crumbs are overwritten.
+ * Ring size could be set by "org.runaway.breadcrumbs.size" system property (default 16).
+ *
+ * <p>Note: pooled threads keep the trail of previous tasks, call clear() when a task starts,
+ * which also releases object references of the trail.
+ */
+
+public final class Breadcrumbs {
+
+  private static final int SIZE =
+      Math.max(1, Integer.highestOneBit(Integer.getInteger("org.runaway.breadcrumbs.size", 16)));
+
+  private static final ThreadLocal<Breadcrumbs> TRAILS = ThreadLocal.withInitial(Breadcrumbs::new);
+
+  private final String[] names = new String[SIZE];
+
+  private final byte[] types = new byte[SIZE];
+
+  private final long[] primitives = new long[SIZE];
+
+  private final Object[] objects = new Object[SIZE];
+
+  /**
+   * Number of crumbs added since the trail was cleared.
+   */
+
+  private long count = 0;
+
+  private Breadcrumbs() {
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   * @param name var name or info string.
+   * @param value value, converted to string when exception is rendered.
+   */
+
+  public static void crumb(String name, Object value) {
+    Breadcrumbs trail = TRAILS.get();
+    int index = trail.next(name, SnapshotStore.TYPE_OBJECT);
+    trail.objects[index] = value;
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, int value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_INT, value);
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, long value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_LONG, value);
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, boolean value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_BOOLEAN, value ? 1 : 0);
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, double value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, float value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_FLOAT, Float.floatToRawIntBits(value));
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, char value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_CHAR, value);
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, short value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_SHORT, value);
+  }
+
+  /**
+   * Add crumb to the trail of the current thread.
+   */
+
+  public static void crumb(String name, byte value) {
+    TRAILS.get().add(name, SnapshotStore.TYPE_BYTE, value);
+  }
+
+  /**
+   * Clear the trail of the current thread, e.g. when pooled thread starts a new task.
+   */
+
+  public static void clear() {
+    Breadcrumbs trail = TRAILS.get();
+    if (trail.count == 0) {
+      return;
+    }
+    for (int index = 0; index < SIZE; index++) {
+      trail.names[index] = null;
+      trail.objects[index] = null;
+    }
+    trail.count = 0;
+  }
+
+  /**
+   * Copy the trail of the current thread, the oldest crumb first.
+   * @return snapshots of crumbs, or null if the trail is empty.
+   */
+
+  static SnapshotStore capture() {
+    Breadcrumbs trail = TRAILS.get();
+    if (trail.count == 0) {
+      return null;
+    }
+
+    SnapshotStore crumbs = new SnapshotStore();
+    long first = Math.max(0, trail.count - SIZE);
+    for (long crumb = first; crumb < trail.count; crumb++) {
+      int index = (int) crumb & (SIZE - 1);
+      if (trail.types[index] == SnapshotStore.TYPE_OBJECT) {
+        crumbs.add(trail.names[index], trail.objects[index]);
+      } else {
+        crumbs.addPrimitive(trail.names[index], trail.types[index], trail.primitives[index]);
+      }
+    }
+    return crumbs;
+  }
+
+  private void add(String name, byte type, long bits) {
+    int index = next(name, type);
+    primitives[index] = bits;
+    // release object reference of the overwritten crumb, reading it is cheaper than
+    // storing reference, which needs GC write barrier
+    if (objects[index] != null) {
+      objects[index] = null;
+    }
+  }
+
+  private int next(String name, byte type) {
+    int index = (int) count++ & (SIZE - 1);
+    names[index] = name;
+    types[index] = type;
+    return index;
+  }
+
+}
@@ -0,0 +1,298 @@
+package org.runaway.exception;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * CallSites are the targets of snap() and at() calls rewritten by the call site weaver
+ * (runaway-weaver build step), e.g.
+ * <pre>
+ *   re.snap("id", id);
+ * </pre>
+ * in method Order.check() becomes
+ * <pre>
+ *   CallSites.snap(re, "id", id, "com.acme.Order", "check");
+ * </pre>
+ * Call site class and method are constants, so the frame is found by table lookup
+ * in the stack trace of the exception instead of a stack walk, see RunawayException.
+ * Only when several frames have the call site method (recursive method), the frame
+ * is determined by depth of the current stack.
+ *
+ * <p>Note: line number is not part of the call site, as snap() is rarely at the line
+ * of the frame, which is the line of the call or throw in that method.
+ * Methods are not meant to be called directly.
+ *
+ * <p>Calls of Executor.execute(), ExecutorService.submit() and of RunawayExecutors are woven
+ * the same way, with source file and line of the call as well: for executors wrapped by
+ * RunawayExecutors the call site is the submission site of the task, so there is no stack walk
+ * (see SubmissionSite), other executors are called as they were.
+ */
+
+public final class CallSites {
+
+  /**
+   * Class name to skip when the stack is walked, see TraceNumber.
+   */
+
+  static final String CLASS_NAME = CallSites.class.getName();
+
+  private CallSites() {
+  }
+
+  /**
+   * Woven RunawayException.snap(String, Object).
+   * @param exception exception the snapshot is added to.
+   * @param name name of variable, or any other info or id string.
+   * @param object value of the variable.
+   * @param siteClass class name of the call site.
+   * @param siteMethod method name of the call site.
+   */
+
+  public static void snap(RunawayException exception, String name, Object object,
+      String siteClass, String siteMethod) {
+    SnapshotStore snapshots = exception.siteSnapshots(siteClass, siteMethod);
+    if (snapshots != null) {
+      snapshots.add(name, object);
+      exception.snapshotsChanged();
+    }
+  }
+
+  /**
+   * Woven RunawayException.snap(String, Supplier).
+   */
+
+  public static void snap(RunawayException exception, String name, Supplier<?> supplier,
+      String siteClass, String siteMethod) {
+    SnapshotStore snapshots = exception.siteSnapshots(siteClass, siteMethod);
+    if (snapshots != null) {
+      snapshots.addSupplied(name, supplier);
+      exception.snapshotsChanged();
+    }
+  }
+
+  /**
+   * Woven RunawayException.snapNow(String, Object).
+   */
+
+  public static void snapNow(RunawayException exception, String name, Object object,
+      String siteClass, String siteMethod) {
+    SnapshotStore snapshots = exception.siteSnapshots(siteClass, siteMethod);
+    if (snapshots != null) {
+      snapshots.add(name, SnapshotFormat.toString(object, false,
+          SnapshotFormat.maxSnapshotLength()));
+      exception.snapshotsChanged();
+    }
+  }
+
+  /**
+   * Woven RunawayException.snap(String, int).
+   */
+
+  public static void snap(RunawayException exception, String name, int value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_INT, value, siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.snap(String, long).
+   */
+
+  public static void snap(RunawayException exception, String name, long value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_LONG, value, siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.snap(String, boolean).
+   */
+
+  public static void snap(RunawayException exception, String name, boolean value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_BOOLEAN, value ? 1 : 0,
+        siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.snap(String, double).
+   */
+
+  public static void snap(RunawayException exception, String name, double value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_DOUBLE, Double.doubleToRawLongBits(value),
+        siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.snap(String, float).
+   */
+
+  public static void snap(RunawayException exception, String name, float value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_FLOAT, Float.floatToRawIntBits(value),
+        siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.snap(String, char).
+   */
+
+  public static void snap(RunawayException exception, String name, char value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_CHAR, value, siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.snap(String, short).
+   */
+
+  public static void snap(RunawayException exception, String name, short value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_SHORT, value, siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.snap(String, byte).
+   */
+
+  public static void snap(RunawayException exception, String name, byte value,
+      String siteClass, String siteMethod) {
+    snapPrimitive(exception, name, SnapshotStore.TYPE_BYTE, value, siteClass, siteMethod);
+  }
+
+  /**
+   * Woven RunawayException.at().
+   * @return batch to collect snapshots, committed to the exception by commit().
+   */
+
+  public static SnapshotBatch at(RunawayException exception,
+      String siteClass, String siteMethod) {
+    return exception.at(siteClass, siteMethod);
+  }
+
+  /**
+   * Woven Executor.execute(Runnable).
+   * @param executor executor, wrapped by RunawayExecutors or not.
+   * @param task task to run.
+   * @param siteClass class name of the call site.
+   * @param siteMethod method name of the call site.
+   * @param siteFile source file name of the call site, or null if unknown.
+   * @param siteLine line number of the call site, or negative if unknown.
+   */
+
+  public static void execute(Executor executor, Runnable task,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    Executor target = RunawayExecutors.unwrap(executor);
+    if (target == null) {
+      executor.execute(task);
+      return;
+    }
+    RunawayExecutors.checkTask(task);
+    target.execute(RunawayExecutors.wrapTask(task,
+        SubmissionSite.at(siteClass, siteMethod, siteFile, siteLine)));
+  }
+
+  /**
+   * Woven ExecutorService.submit(Callable).
+   */
+
+  public static <T> Future<T> submit(ExecutorService executor, Callable<T> task,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    if (RunawayExecutors.unwrap(executor) == null) {
+      return executor.submit(task);
+    }
+    return RunawayExecutors.submit(executor, task,
+        SubmissionSite.at(siteClass, siteMethod, siteFile, siteLine));
+  }
+
+  /**
+   * Woven ExecutorService.submit(Runnable).
+   */
+
+  public static Future<?> submit(ExecutorService executor, Runnable task,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    if (RunawayExecutors.unwrap(executor) == null) {
+      return executor.submit(task);
+    }
+    return RunawayExecutors.submit(executor, task, null,
+        SubmissionSite.at(siteClass, siteMethod, siteFile, siteLine));
+  }
+
+  /**
+   * Woven ExecutorService.submit(Runnable, Object).
+   */
+
+  public static <T> Future<T> submit(ExecutorService executor, Runnable task, T result,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    if (RunawayExecutors.unwrap(executor) == null) {
+      return executor.submit(task, result);
+    }
+    return RunawayExecutors.submit(executor, task, result,
+        SubmissionSite.at(siteClass, siteMethod, siteFile, siteLine));
+  }
+
+  /**
+   * Woven RunawayExecutors.wrapTask(Runnable).
+   */
+
+  public static Runnable wrapTask(Runnable task,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    RunawayExecutors.checkTask(task);
+    return RunawayExecutors.wrapTask(task,
+        SubmissionSite.at(siteClass, siteMethod, siteFile, siteLine));
+  }
+
+  /**
+   * Woven RunawayExecutors.supplyAsync(Supplier).
+   */
+
+  public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    RunawayExecutors.checkSupplier(supplier);
+    return CompletableFuture.supplyAsync(RunawayExecutors.wrapSupplier(supplier,
+        SubmissionSite.at(siteClass, siteMethod, siteFile, siteLine)));
+  }
+
+  /**
+   * Woven RunawayExecutors.supplyAsync(Supplier, Executor).
+   */
+
+  public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    RunawayExecutors.checkSupplier(supplier);
+    return CompletableFuture.supplyAsync(RunawayExecutors.wrapSupplier(supplier,
+        SubmissionSite.at(siteClass, siteMethod, siteFile, siteLine)), executor);
+  }
+
+  /**
+   * Woven RunawayExecutors.runAsync(Runnable).
+   */
+
+  public static CompletableFuture<Void> runAsync(Runnable task,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    return CompletableFuture.runAsync(wrapTask(task, siteClass, siteMethod, siteFile, siteLine));
+  }
+
+  /**
+   * Woven RunawayExecutors.runAsync(Runnable, Executor).
+   */
+
+  public static CompletableFuture<Void> runAsync(Runnable task, Executor executor,
+      String siteClass, String siteMethod, String siteFile, int siteLine) {
+    return CompletableFuture.runAsync(wrapTask(task, siteClass, siteMethod, siteFile, siteLine),
+        executor);
+  }
+
+  private static void snapPrimitive(RunawayException exception, String name, byte type,
+      long bits, String siteClass, String siteMethod) {
+    SnapshotStore snapshots = exception.siteSnapshots(siteClass, siteMethod);
+    if (snapshots != null) {
+      snapshots.addPrimitive(name, type, bits);
+      exception.snapshotsChanged();
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+package org.runaway.exception;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * CapturePolicies provides capture policy of new exceptions.
+ *
+ * <p>Policy is the first CapturePolicy found by ServiceLoader, or default policy
+ * configured by system properties:
+ * <pre>
+ *   org.runaway.capture.depth       - max number of stack frames captured, 0 (default) for all;
+ *   org.runaway.render.depth        - max number of stack frames rendered, default 32;
+ *   org.runaway.snapshots.perFrame  - max number of snapshots per frame, 0 (default) for all;
+ *   org.runaway.snapshots.maxLength - max length of snapshot value, default 4096 chars;
+ *   org.runaway.snapshots.budget    - max length of snapshot values per exception,
+ *                                     default 65536 chars;
+ *   org.runaway.frames.intern       - true to intern stack frames, default false.
+ * </pre>
+ */
+
+public final class CapturePolicies {
+
+  private static volatile CapturePolicy policy = loadPolicy();
+
+  private CapturePolicies() {
+  }
+
+  /**
+   * Set capture policy of new exceptions.
+   * @param capturePolicy policy, null to use default one.
+   */
+
+  public static void setPolicy(CapturePolicy capturePolicy) {
+    policy = (capturePolicy == null) ? new PropertyPolicy() : capturePolicy;
+  }
+
+  /**
+   * Get capture policy of new exceptions.
+   * @return policy, never null.
+   */
+
+  public static CapturePolicy getPolicy() {
+    return policy;
+  }
+
+  private static CapturePolicy loadPolicy() {
+    try {
+      Iterator<CapturePolicy> policies = ServiceLoader.load(CapturePolicy.class).iterator();
+      if (policies.hasNext()) {
+        return policies.next();
+      }
+    } catch (ServiceConfigurationError e) {
+      // broken provider should not break exception handling, use default policy
+    }
+    return new PropertyPolicy();
+  }
+
+  /**
+   * Default policy, see CapturePolicies.
+   */
+
+  private static final class PropertyPolicy implements CapturePolicy {
+
+    private final int captureDepth = Integer.getInteger("org.runaway.capture.depth", 0);
+
+    private final int renderDepth = Integer.getInteger("org.runaway.render.depth", 32);
+
+    private final int maxSnapshots = Integer.getInteger("org.runaway.snapshots.perFrame", 0);
+
+    private final int maxSnapshotLength =
+        Integer.getInteger("org.runaway.snapshots.maxLength", 4096);
+
+    private final int snapshotBudget = Integer.getInteger("org.runaway.snapshots.budget", 65536);
+
+    private final boolean interningFrames = Boolean.getBoolean("org.runaway.frames.intern");
+
+    @Override
+    public int getCaptureDepth() {
+      return captureDepth;
+    }
+
+    @Override
+    public int getRenderDepth() {
+      return renderDepth;
+    }
+
+    @Override
+    public int getMaxSnapshotsPerFrame() {
+      return maxSnapshots;
+    }
+
+    @Override
+    public int getMaxSnapshotLength() {
+      return maxSnapshotLength;
+    }
+
+    @Override
+    public int getSnapshotBudget() {
+      return snapshotBudget;
+    }
+
+    @Override
+    public boolean isInterningFrames() {
+      return interningFrames;
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+package org.runaway.exception;
+
+/**
+ * Capture policy - how much of the stack and of snapshots RunawayExceptions keep and render.
+ * Implementation could be provided by ServiceLoader (META-INF/services/
+ * org.runaway.exception.CapturePolicy) or set by CapturePolicies.setPolicy(),
+ * otherwise the policy is configured by system properties, see CapturePolicies.
+ * Policy is called for every new exception, so it should not block nor use locks.
+ */
+
+public interface CapturePolicy {
+
+  /**
+   * Get max number of the most recent stack frames captured by new exception.
+   * The limit is applied when exception is created: on Java 9+ only these frames are walked
+   * and older frames are never materialized, on Java 8 the complete stack trace is filled in
+   * and then truncated.
+   * @return capture depth, 0 or less for complete stack.
+   */
+
+  default int getCaptureDepth() {
+    return 0;
+  }
+
+  /**
+   * Get max number of stack frames rendered by toString().
+   * @return render depth, 0 or less for all frames.
+   */
+
+  default int getRenderDepth() {
+    return 32;
+  }
+
+  /**
+   * Get max number of snapshots kept per stack frame, extra snapshots are dropped.
+   * @return snapshot limit, 0 or less for no limit.
+   */
+
+  default int getMaxSnapshotsPerFrame() {
+    return 0;
+  }
+
+  /**
+   * Get max length of one object snapshot value in chars: rendering stops at the limit
+   * and the value is marked as truncated, large collections, maps and arrays are summarized
+   * by size and the first elements, see SnapshotFormat. The limit applies to values
+   * of snapNow() when snapped, and to other values when rendered or serialized.
+   * @return value limit, 0 or less for no limit.
+   */
+
+  default int getMaxSnapshotLength() {
+    return 4096;
+  }
+
+  /**
+   * Get max total length of object snapshot values rendered per exception, in chars,
+   * by toString() or JsonEncoder: values over the budget are cut or left out
+   * and marked as truncated. Each cause bug has its own budget.
+   * @return budget, 0 or less for no limit.
+   */
+
+  default int getSnapshotBudget() {
+    return 64 * 1024;
+  }
+
+  /**
+   * Check if stack trace elements of new and deserialized exceptions are replaced
+   * by canonical instances, so retained exceptions of the same origin share them.
+   * It costs a table lookup per frame when exception is created, see FrameInterner.
+   * @return true to intern frames.
+   */
+
+  default boolean isInterningFrames() {
+    return false;
+  }
+
+}
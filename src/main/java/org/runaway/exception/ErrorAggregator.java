@@ -0,0 +1,302 @@
+package org.runaway.exception;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * ErrorAggregator counts repeated errors by fingerprint (see RunawayException.getFingerprint()),
+ * so in error storms only the first error of each kind needs to be rendered and logged,
+ * while the repeated ones just increment a counter.
+ *
+ * <p>Each fingerprint keeps count, first and last seen time (updated once a second at most,
+ * so repeats do not write the same cache line) and tech support code, thread, throwing class
+ * and message of the first exception, which is not kept itself, so its snapshots and cause
+ * are not retained by the aggregator. The table is split into stripes of fixed size, each stripe is lock-free
+ * open-addressing array, so memory is bounded: if there is no free slot for a new
+ * fingerprint, the coldest (least recently seen) of the probed entries is replaced.
+ *
+ * <p>Aggregator is optional: create one and install() it as process-wide aggregator,
+ * then RunawayLog logs only the first error of each fingerprint and reports
+ * the number of repeats periodically, see RunawayLog.
+ */
+
+public final class ErrorAggregator {
+
+  /**
+   * Number of slots probed for a fingerprint.
+   */
+
+  private static final int MAX_PROBES = 8;
+
+  private static final int STRIPES = 16;
+
+  /**
+   * Last seen time of fingerprint is updated only if it is older than that.
+   */
+
+  private static final long LAST_SEEN_MILLIS = 1000;
+
+  private static volatile ErrorAggregator global = null;
+
+  private final Stripe[] stripes;
+
+  private final int slotMask;
+
+  /**
+   * Constructor.
+   * @param capacity max number of fingerprints kept, rounded up to power of 2.
+   */
+
+  public ErrorAggregator(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity <= 0");
+    }
+    int stripeSize = Math.max(Integer.highestOneBit(Math.max(capacity / STRIPES, 1) - 1) << 1,
+        MAX_PROBES);
+    this.stripes = new Stripe[STRIPES];
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      stripes[stripe] = new Stripe(stripeSize);
+    }
+    this.slotMask = stripeSize - 1;
+  }
+
+  /**
+   * Install process-wide aggregator used by RunawayLog.
+   * @param aggregator aggregator, or null to log every error.
+   */
+
+  public static void install(ErrorAggregator aggregator) {
+    global = aggregator;
+  }
+
+  /**
+   * Get process-wide aggregator.
+   * @return aggregator, or null if not installed.
+   */
+
+  public static ErrorAggregator global() {
+    return global;
+  }
+
+  /**
+   * Count the error.
+   * @param exception error to count.
+   * @return true if this is the first error with this fingerprint (it should be logged),
+   *     false if it is repeated and just counted.
+   */
+
+  public boolean offer(RunawayException exception) {
+    long fingerprint = exception.getFingerprint();
+    long now = System.currentTimeMillis();
+    Stripe slots = stripes[(int) (fingerprint >>> 60) & (STRIPES - 1)];
+    int start = (int) fingerprint;
+
+    int coldest = -1;
+    Entry coldestEntry = null;
+
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      int slot = (start + probe) & slotMask;
+      Entry entry = slots.get(slot);
+
+      if (entry == null) {
+        Entry created = new Entry(fingerprint, exception, now);
+        if (slots.compareAndSet(slot, null, created)) {
+          return true;
+        }
+        // another thread took the slot, could be the same fingerprint
+        entry = slots.get(slot);
+      }
+
+      if (entry.fingerprint == fingerprint) {
+        entry.count.increment();
+        if (now - entry.lastSeen >= LAST_SEEN_MILLIS) {
+          entry.lastSeen = now;
+        }
+        return false;
+      }
+
+      if (coldestEntry == null || entry.lastSeen < coldestEntry.lastSeen) {
+        coldest = slot;
+        coldestEntry = entry;
+      }
+    }
+
+    // no free slot, replace the coldest entry; if lost race just report it as new
+    slots.compareAndSet(coldest, coldestEntry, new Entry(fingerprint, exception, now));
+    return true;
+  }
+
+  /**
+   * Get counted errors.
+   * @return current counts of all fingerprints kept.
+   */
+
+  public List<Stats> getStats() {
+    List<Stats> result = new ArrayList<>();
+    for (Stripe slots: stripes) {
+      for (int slot = 0; slot < slots.length(); slot++) {
+        Entry entry = slots.get(slot);
+        if (entry != null) {
+          result.add(new Stats(entry));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Report repeats counted since the previous call, for each fingerprint which has them.
+   * Must not be called by several threads at once, RunawayLog calls it from logger thread.
+   * @param listener receives counts of the fingerprint and the number of its new repeats.
+   */
+
+  public void drainRepeats(ObjLongConsumer<Stats> listener) {
+    for (Stripe slots: stripes) {
+      for (int slot = 0; slot < slots.length(); slot++) {
+        Entry entry = slots.get(slot);
+        if (entry == null) {
+          continue;
+        }
+        long count = entry.count.sum();
+        if (count > entry.reported) {
+          long repeats = count - entry.reported;
+          entry.reported = count;
+          listener.accept(new Stats(entry), repeats);
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove fingerprints not seen since the specified time.
+   * @param lastSeenBefore time in millis.
+   */
+
+  public void evictIdle(long lastSeenBefore) {
+    for (Stripe slots: stripes) {
+      for (int slot = 0; slot < slots.length(); slot++) {
+        Entry entry = slots.get(slot);
+        if (entry != null && entry.lastSeen < lastSeenBefore) {
+          slots.compareAndSet(slot, entry, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Counted fingerprint.
+   */
+
+  private static final class Entry {
+    private final long fingerprint;
+    private final int techSupportCode;
+    private final long threadId;
+    private final String throwingClassName;
+    private final String message;
+    private final long firstSeen;
+    private final LongAdder count = new LongAdder();
+    private volatile long lastSeen;
+
+    /**
+     * Count already reported by drainRepeats(), the first error is logged itself.
+     */
+
+    private long reported = 1;
+
+    Entry(long fingerprint, RunawayException exemplar, long now) {
+      this.fingerprint = fingerprint;
+      this.techSupportCode = exemplar.getTechSupportCode();
+      this.threadId = exemplar.getThreadId();
+      this.throwingClassName = exemplar.getThrowingClassName();
+      this.message = exemplar.getMessage();
+      this.firstSeen = now;
+      this.lastSeen = now;
+      count.increment();
+    }
+  }
+
+  /**
+   * Open addressing array of one stripe.
+   */
+
+  private static final class Stripe extends AtomicReferenceArray<Entry> {
+    private static final long serialVersionUID = 20030101L;
+
+    Stripe(int length) {
+      super(length);
+    }
+  }
+
+  /**
+   * Counts of one fingerprint at the moment.
+   */
+
+  public static final class Stats {
+    private final long fingerprint;
+    private final int techSupportCode;
+    private final long threadId;
+    private final String throwingClassName;
+    private final String message;
+    private final long count;
+    private final long firstSeen;
+    private final long lastSeen;
+
+    private Stats(Entry entry) {
+      this.fingerprint = entry.fingerprint;
+      this.techSupportCode = entry.techSupportCode;
+      this.threadId = entry.threadId;
+      this.throwingClassName = entry.throwingClassName;
+      this.message = entry.message;
+      this.count = entry.count.sum();
+      this.firstSeen = entry.firstSeen;
+      this.lastSeen = entry.lastSeen;
+    }
+
+    public long getFingerprint() {
+      return fingerprint;
+    }
+
+    /**
+     * Get tech support code of the first exception with this fingerprint,
+     * to find it in the log or in ErrorRegistry.
+     * @return tech support code.
+     */
+
+    public int getTechSupportCode() {
+      return techSupportCode;
+    }
+
+    public long getThreadId() {
+      return threadId;
+    }
+
+    public String getThrowingClassName() {
+      return throwingClassName;
+    }
+
+    /**
+     * Get message of the first exception with this fingerprint, see RunawayException.getMessage().
+     * @return message.
+     */
+
+    public String getMessage() {
+      return message;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getFirstSeen() {
+      return firstSeen;
+    }
+
+    public long getLastSeen() {
+      return lastSeen;
+    }
+  }
+
+}
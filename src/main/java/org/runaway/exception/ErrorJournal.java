@@ -0,0 +1,435 @@
+package org.runaway.exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * ErrorJournal appends RunawayExceptions to memory-mapped ring file, so the most recent
+ * errors survive process crash: writes are memory stores, flushed to the file by OS
+ * even if the process dies right after the write. Use force() to survive OS crash too.
+ *
+ * <p>File layout:
+ * <pre>
+ *   file header (32 bytes) - magic, version, data capacity;
+ *   data ring - records aligned to 8 bytes, the oldest are overwritten:
+ *     record magic, payload length, position, payload CRC32, payload;
+ *     payload - time, the exception, count of cause bugs, cause bugs (see getCause());
+ *     exception - tech support code, thread id, fingerprint, class name, message,
+ *     breadcrumbs and submission site lines, stack frames and snapshots in FrameCodec
+ *     format, line of snapshots of frames not captured.
+ * </pre>
+ * Writers reserve space by CAS of the write position, so writers do not block each other.
+ * Position is the number of bytes written since the file was created, records are ordered
+ * by it. Record is valid only if its CRC matches, so records torn by crash or partially
+ * overwritten are skipped by the reader.
+ *
+ * <p>Journal could be read by read() or by command line:
+ * {@code java -cp runaway.jar org.runaway.exception.ErrorJournal <file>}.
+ */
+
+public final class ErrorJournal implements Closeable {
+
+  private static final long FILE_MAGIC = 0x52554E4157415931L; // "RUNAWAY1"
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int FILE_HEADER_SIZE = 32;
+
+  private static final int RECORD_MAGIC = 0x52455252; // "RERR"
+
+  /**
+   * Record header - magic, payload length, position, CRC32 of payload.
+   */
+
+  private static final int RECORD_HEADER_SIZE = 20;
+
+  private static final int ALIGNMENT = 8;
+
+  private static final int MIN_CAPACITY = 4096;
+
+  /**
+   * Max number of cause bugs of a record, the oldest ones are dropped.
+   */
+
+  private static final int MAX_CAUSE_BUGS = 16;
+
+  private static volatile ErrorJournal global = null;
+
+  private final FileChannel channel;
+
+  private final MappedByteBuffer buffer;
+
+  private final int capacity;
+
+  /**
+   * Position of the next record, total number of bytes written to the ring.
+   */
+
+  private final AtomicLong position;
+
+  private ErrorJournal(FileChannel channel, MappedByteBuffer buffer, int capacity,
+      long position) {
+    this.channel = channel;
+    this.buffer = buffer;
+    this.capacity = capacity;
+    this.position = new AtomicLong(position);
+  }
+
+  /**
+   * Open journal file, creating it if needed.
+   * Existing journal is continued after its most recent record.
+   * @param file journal file.
+   * @param capacity size of the data ring in bytes, rounded down to 8 bytes;
+   *     ignored if the journal already exists.
+   * @return open journal.
+   * @throws IOException if file could not be opened or it is not a journal.
+   */
+
+  public static ErrorJournal open(Path file, int capacity) throws IOException {
+    if (capacity < MIN_CAPACITY) {
+      throw new IllegalArgumentException("capacity < " + MIN_CAPACITY);
+    }
+
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      int dataCapacity = capacity & -ALIGNMENT;
+      boolean exists = channel.size() > 0;
+      if (exists) {
+        dataCapacity = readHeader(channel);
+      }
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          (long) FILE_HEADER_SIZE + dataCapacity);
+      if (!exists) {
+        buffer.putLong(0, FILE_MAGIC);
+        buffer.putInt(8, FORMAT_VERSION);
+        buffer.putInt(12, dataCapacity);
+      }
+
+      long position = 0;
+      for (JournalRecord record: scan(buffer, dataCapacity)) {
+        position = Math.max(position, record.getPosition()
+            + align(RECORD_HEADER_SIZE + record.getPayloadLength()));
+      }
+      return new ErrorJournal(channel, buffer, dataCapacity, position);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static int readHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+      // read the whole header
+    }
+    if (header.hasRemaining() || header.getLong(0) != FILE_MAGIC) {
+      throw new IOException("Not an error journal");
+    }
+    if (header.getInt(8) != FORMAT_VERSION) {
+      throw new IOException("Unsupported error journal version: " + header.getInt(8));
+    }
+    int dataCapacity = header.getInt(12);
+    if (dataCapacity < MIN_CAPACITY || dataCapacity % ALIGNMENT != 0
+        || channel.size() < (long) FILE_HEADER_SIZE + dataCapacity) {
+      throw new IOException("Corrupted error journal header");
+    }
+    return dataCapacity;
+  }
+
+  /**
+   * Install process-wide journal, see RunawayLog.
+   * @param journal journal, null to remove it.
+   */
+
+  public static void install(ErrorJournal journal) {
+    global = journal;
+  }
+
+  /**
+   * Get process-wide journal.
+   * @return journal, or null if not installed.
+   */
+
+  public static ErrorJournal global() {
+    return global;
+  }
+
+  /**
+   * Append exception to the journal, overwriting the oldest records if needed.
+   * Snapshots are converted to strings by the calling thread.
+   * @param exception exception to append, ignored if null.
+   * @return false if exception is too large for the journal or could not be encoded.
+   */
+
+  public boolean append(RunawayException exception) {
+    if (exception == null) {
+      return false;
+    }
+
+    byte[] payload;
+    try {
+      payload = encode(exception);
+    } catch (IOException | RuntimeException e) { /* should not be here */
+      return false;
+    }
+
+    int size = align(RECORD_HEADER_SIZE + payload.length);
+    if (size > capacity) {
+      return false;
+    }
+
+    long recordPosition = reserve(size);
+    int offset = offset(recordPosition);
+
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+
+    ByteBuffer record = buffer.duplicate();
+    record.position(offset + RECORD_HEADER_SIZE);
+    record.put(payload);
+    // clear alignment bytes, so nothing of older records is left in this one
+    for (int index = offset + RECORD_HEADER_SIZE + payload.length; index < offset + size;
+        index++) {
+      record.put(index, (byte) 0);
+    }
+    record.putInt(offset + 4, payload.length);
+    record.putLong(offset + 8, recordPosition);
+    record.putInt(offset + 16, (int) crc.getValue());
+    // magic is written last, still reader relies on CRC as stores could be reordered
+    record.putInt(offset, RECORD_MAGIC);
+    return true;
+  }
+
+  /**
+   * Reserve space for a record, skipping the end of the ring if the record does not fit,
+   * older records left there are still valid.
+   * @param size aligned record size.
+   * @return position of the record.
+   */
+
+  private long reserve(int size) {
+    while (true) {
+      long current = position.get();
+      int remaining = capacity - (int) (current % capacity);
+      long recordPosition = (size <= remaining) ? current : current + remaining;
+
+      if (position.compareAndSet(current, recordPosition + size)) {
+        return recordPosition;
+      }
+    }
+  }
+
+  private int offset(long recordPosition) {
+    return FILE_HEADER_SIZE + (int) (recordPosition % capacity);
+  }
+
+  private static int align(int size) {
+    return (size + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  private static byte[] encode(RunawayException exception) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(System.currentTimeMillis());
+    encodeException(out, exception);
+
+    List<RunawayException> causeBugs = new ArrayList<>();
+    RunawayException enclosing = exception;
+    Throwable cause = exception.getCause();
+    while (cause instanceof RunawayException && cause != enclosing
+        && causeBugs.size() < MAX_CAUSE_BUGS) {
+      enclosing = (RunawayException) cause;
+      causeBugs.add(enclosing);
+      cause = enclosing.getCause();
+    }
+    FrameCodec.writeVarInt(out, causeBugs.size());
+    for (RunawayException bug: causeBugs) {
+      encodeException(out, bug);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void encodeException(DataOutputStream out, RunawayException exception)
+      throws IOException {
+    FrameCodec.writeVarInt(out, exception.getTechSupportCode());
+    FrameCodec.writeVarLong(out, exception.getThreadId());
+    out.writeLong(exception.getFingerprint());
+    FrameCodec.writeString(out, exception.getClass().getName());
+    FrameCodec.writeString(out, exception.getMessage());
+    StringBuilder lines = new StringBuilder();
+    exception.writeBreadcrumbs(lines);
+    exception.writeSubmissionSite(lines);
+    FrameCodec.writeString(out, lines.toString());
+    exception.encodeFrames(out);
+    lines.setLength(0);
+    exception.writeUncaptured(lines);
+    FrameCodec.writeString(out, lines.toString());
+  }
+
+  /**
+   * Force journal changes to the storage, so they survive OS crash.
+   */
+
+  public void force() {
+    buffer.force();
+  }
+
+  /**
+   * Close journal file, the journal should not be used afterwards.
+   * @throws IOException if file fails.
+   */
+
+  @Override
+  public void close() throws IOException {
+    if (global == this) {
+      global = null;
+    }
+    buffer.force();
+    channel.close();
+  }
+
+  /**
+   * Read journal file, e.g. after crash.
+   * @param file journal file.
+   * @return valid records, the oldest first.
+   * @throws IOException if file could not be read or it is not a journal.
+   */
+
+  public static List<JournalRecord> read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      int dataCapacity = readHeader(channel);
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          (long) FILE_HEADER_SIZE + dataCapacity);
+      return scan(buffer, dataCapacity);
+    }
+  }
+
+  /**
+   * Find valid records of the data ring.
+   * Invalid data is skipped by alignment step, so reading resumes at the next record.
+   */
+
+  private static List<JournalRecord> scan(ByteBuffer buffer, int dataCapacity) {
+    List<JournalRecord> records = new ArrayList<>();
+    int offset = 0;
+
+    while (offset + RECORD_HEADER_SIZE <= dataCapacity) {
+      int start = FILE_HEADER_SIZE + offset;
+      int magic = buffer.getInt(start);
+      int length = buffer.getInt(start + 4);
+
+      JournalRecord record = null;
+      if (magic == RECORD_MAGIC && length >= 0
+          && length <= dataCapacity - offset - RECORD_HEADER_SIZE) {
+        record = decode(buffer, start, length, dataCapacity);
+      }
+
+      if (record == null) {
+        offset += ALIGNMENT;
+        continue;
+      }
+      records.add(record);
+      offset += align(RECORD_HEADER_SIZE + length);
+    }
+
+    records.sort(Comparator.comparingLong(JournalRecord::getPosition));
+    return records;
+  }
+
+  private static JournalRecord decode(ByteBuffer buffer, int start, int length,
+      int dataCapacity) {
+    long recordPosition = buffer.getLong(start + 8);
+    if (recordPosition < 0 || FILE_HEADER_SIZE + recordPosition % dataCapacity != start) {
+      return null;
+    }
+
+    byte[] payload = new byte[length];
+    ByteBuffer source = buffer.duplicate();
+    source.position(start + RECORD_HEADER_SIZE);
+    source.get(payload);
+
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, length);
+    if ((int) crc.getValue() != buffer.getInt(start + 16)) {
+      return null;
+    }
+
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      long timestamp = in.readLong();
+      JournalRecord record = decodeException(in, recordPosition, length, timestamp);
+      int causeCount = FrameCodec.readVarInt(in);
+      if (causeCount < 0 || causeCount > MAX_CAUSE_BUGS) {
+        throw new InvalidObjectException("Invalid cause bugs count: " + causeCount);
+      }
+      JournalRecord enclosing = record;
+      for (int index = 0; index < causeCount; index++) {
+        JournalRecord bug = decodeException(in, recordPosition, length, timestamp);
+        enclosing.setCauseBug(bug);
+        enclosing = bug;
+      }
+      return record;
+    } catch (IOException | RuntimeException e) {
+      // valid CRC of invalid payload, e.g. written by newer version
+      return null;
+    }
+  }
+
+  private static JournalRecord decodeException(DataInputStream in, long recordPosition,
+      int length, long timestamp) throws IOException {
+    int techSupportCode = FrameCodec.readVarInt(in);
+    long threadId = FrameCodec.readVarLong(in);
+    long fingerprint = in.readLong();
+    String className = FrameCodec.readString(in);
+    String message = FrameCodec.readString(in);
+    String lines = FrameCodec.readString(in);
+    FrameCodec frames = FrameCodec.read(in, null);
+    String uncapturedLine = FrameCodec.readString(in);
+    return new JournalRecord(recordPosition, length, timestamp, techSupportCode, threadId,
+        fingerprint, className, message, lines, frames, uncapturedLine);
+  }
+
+  /**
+   * Print journal records.
+   * @param args journal file.
+   * @throws IOException if file could not be read or it is not a journal.
+   */
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: java org.runaway.exception.ErrorJournal <journal file>");
+      System.exit(2);
+    }
+
+    Path file = Paths.get(args[0]);
+    if (!Files.isRegularFile(file)) {
+      System.err.println("File not found: " + file);
+      System.exit(1);
+    }
+
+    for (JournalRecord record: read(file)) {
+      System.out.println(record);
+    }
+  }
+
+}
@@ -0,0 +1,341 @@
+package org.runaway.exception;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ErrorRegistry keeps recent RunawayExceptions in memory, so the exception could be found
+ * by tech support code provided by end user instead of searching log files.
+ *
+ * <p>Exceptions are kept as records of their rendered form (see Record), the exception
+ * itself is not kept, as its snapshots could reference any objects of the application.
+ * Records are kept in a bounded lock-free ring, the oldest are evicted when the ring
+ * is full or when the total size of the records exceeds the budget.
+ * Records are indexed by tech support code with a small open-addressing table,
+ * so lookup does not depend on the number of records kept.
+ *
+ * <p>Registry is optional: create one and install() it as process-wide registry,
+ * then record() exceptions when they are reported.
+ */
+
+public final class ErrorRegistry {
+
+  /**
+   * Number of index slots probed for a tech support code.
+   */
+
+  private static final int MAX_PROBES = 4;
+
+  /**
+   * Estimated size of a record besides its rendered chars - record, string and char array
+   * headers and fields, in bytes.
+   */
+
+  private static final int RECORD_OVERHEAD = 96;
+
+  private static volatile ErrorRegistry global = null;
+
+  private final AtomicReferenceArray<Record> ring;
+
+  private final AtomicReferenceArray<Record> index;
+
+  private final int ringMask;
+
+  private final int indexMask;
+
+  private final long maxBytes;
+
+  /**
+   * Sequence number of the next recorded exception.
+   */
+
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Sequence number of the oldest exception which could be still kept.
+   */
+
+  private final AtomicLong tail = new AtomicLong();
+
+  private final AtomicLong retainedBytes = new AtomicLong();
+
+  /**
+   * Constructor.
+   * @param capacity max number of exceptions kept, rounded up to power of 2.
+   * @param maxBytes max total size of records kept, in bytes.
+   */
+
+  public ErrorRegistry(int capacity, long maxBytes) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity <= 0");
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes <= 0");
+    }
+    int ringSize = Integer.highestOneBit(capacity - 1) << 1;
+    ringSize = Math.max(ringSize, 1);
+    this.ring = new AtomicReferenceArray<>(ringSize);
+    this.ringMask = ringSize - 1;
+    this.index = new AtomicReferenceArray<>(ringSize * 2);
+    this.indexMask = ringSize * 2 - 1;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Install process-wide registry.
+   * @param registry registry, null to remove it.
+   */
+
+  public static void install(ErrorRegistry registry) {
+    global = registry;
+  }
+
+  /**
+   * Get process-wide registry.
+   * @return registry, or null if not installed.
+   */
+
+  public static ErrorRegistry global() {
+    return global;
+  }
+
+  /**
+   * Record exception, evicting the oldest records if needed.
+   * Exception is rendered (see RunawayException.toString()), rendered string is kept
+   * by the record and by the exception for logging.
+   * @param exception exception to record, ignored if null.
+   */
+
+  public void record(RunawayException exception) {
+    if (exception == null) {
+      return;
+    }
+
+    String rendered = exception.toString();
+    long sequence = head.getAndIncrement();
+    // UTF-16 chars
+    Record record = new Record(sequence, exception, rendered,
+        rendered.length() * 2L + RECORD_OVERHEAD);
+
+    if (store(record)) {
+      putIndex(record);
+      evict(sequence);
+    }
+  }
+
+  /**
+   * Store record in its ring slot, unless writers lapped the ring meanwhile
+   * and the slot already has a newer record.
+   * @return true if stored.
+   */
+
+  private boolean store(Record record) {
+    int slot = (int) record.sequence & ringMask;
+    while (true) {
+      Record old = ring.get(slot);
+      if (old != null && old.sequence > record.sequence) {
+        // evicted as soon as recorded
+        return false;
+      }
+      if (ring.compareAndSet(slot, old, record)) {
+        retainedBytes.addAndGet(record.size - ((old == null) ? 0 : old.size));
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Evict the oldest exceptions while over budget, but never the last recorded one.
+   */
+
+  private void evict(long lastSequence) {
+    while (retainedBytes.get() > maxBytes) {
+      long oldest = tail.get();
+      if (oldest >= lastSequence) {
+        return;
+      }
+      long overwritten = head.get() - ring.length();
+      if (oldest < overwritten) {
+        // already replaced in the ring
+        tail.compareAndSet(oldest, overwritten);
+        continue;
+      }
+      if (!tail.compareAndSet(oldest, oldest + 1)) {
+        continue;
+      }
+      int slot = (int) oldest & ringMask;
+      Record record = ring.get(slot);
+      if (record != null && record.sequence == oldest
+          && ring.compareAndSet(slot, record, null)) {
+        retainedBytes.addAndGet(-record.size);
+      }
+    }
+  }
+
+  private void putIndex(Record record) {
+    int start = hash(record.code);
+    int victim = start;
+    Record victimRecord = null;
+
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      int slot = (start + probe) & indexMask;
+      Record current = index.get(slot);
+      if (current == null || !isLive(current) || current.code == record.code) {
+        victim = slot;
+        victimRecord = current;
+        break;
+      }
+      if (victimRecord == null || current.sequence < victimRecord.sequence) {
+        victim = slot;
+        victimRecord = current;
+      }
+    }
+
+    // lost race means another exception took the slot, we keep the newer one anyway
+    index.compareAndSet(victim, victimRecord, record);
+  }
+
+  /**
+   * Find recent exception by tech support code.
+   * @param techSupportCode code, see RunawayException.getTechSupportCode().
+   * @return record of the exception, or null if not found or already evicted.
+   */
+
+  public Record find(int techSupportCode) {
+    int start = hash(techSupportCode);
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      Record record = index.get((start + probe) & indexMask);
+      if (record != null && record.code == techSupportCode && isLive(record)) {
+        return record;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get records of the most recent exceptions.
+   * @param count max number of records.
+   * @return records, the most recent first.
+   */
+
+  public List<Record> recent(int count) {
+    return recent(count, null, 0, false);
+  }
+
+  /**
+   * Get records of the most recent exceptions created in the specified thread.
+   * @param threadId thread id, see RunawayException.getThreadId().
+   * @param count max number of records.
+   * @return records, the most recent first.
+   */
+
+  public List<Record> recentByThread(long threadId, int count) {
+    return recent(count, null, threadId, true);
+  }
+
+  /**
+   * Get records of the most recent exceptions thrown by the specified class.
+   * @param className class name, see RunawayException.getThrowingClassName().
+   * @param count max number of records.
+   * @return records, the most recent first.
+   */
+
+  public List<Record> recentByClass(String className, int count) {
+    return recent(count, className, 0, false);
+  }
+
+  private List<Record> recent(int count, String className, long threadId, boolean byThread) {
+    List<Record> result = new ArrayList<>(Math.min(Math.max(count, 0), ring.length()));
+    long last = head.get() - 1;
+    long first = Math.max(last - ring.length() + 1, 0);
+
+    for (long sequence = last; sequence >= first && result.size() < count; sequence--) {
+      Record record = ring.get((int) sequence & ringMask);
+      if (record == null || record.sequence != sequence) {
+        continue;
+      }
+      if (byThread && record.threadId != threadId) {
+        continue;
+      }
+      if (className != null && !className.equals(record.throwingClass)) {
+        continue;
+      }
+      result.add(record);
+    }
+    return result;
+  }
+
+  /**
+   * Get total size of records kept.
+   * @return estimated size in bytes.
+   */
+
+  public long getRetainedBytes() {
+    return retainedBytes.get();
+  }
+
+  private boolean isLive(Record record) {
+    return ring.get((int) record.sequence & ringMask) == record;
+  }
+
+  private int hash(int code) {
+    int hash = code * 0x9E3779B1;
+    return (hash ^ (hash >>> 16)) & indexMask;
+  }
+
+  /**
+   * Recorded exception: rendered exception and the fields it is queried by.
+   */
+
+  public static final class Record {
+    private final long sequence;
+    private final int code;
+    private final long threadId;
+    private final String throwingClass;
+    private final String rendered;
+    private final long size;
+
+    Record(long sequence, RunawayException exception, String rendered, long size) {
+      this.sequence = sequence;
+      this.code = exception.getTechSupportCode();
+      this.threadId = exception.getThreadId();
+      this.throwingClass = exception.getThrowingClassName();
+      this.rendered = rendered;
+      this.size = size;
+    }
+
+    public int getTechSupportCode() {
+      return code;
+    }
+
+    public long getThreadId() {
+      return threadId;
+    }
+
+    /**
+     * Get class name of the most recent stack frame.
+     * @return class name, or null if the exception had no frames.
+     */
+
+    public String getThrowingClassName() {
+      return throwingClass;
+    }
+
+    /**
+     * Get exception as it was rendered when recorded, see RunawayException.toString().
+     * @return rendered exception.
+     */
+
+    public String getRendered() {
+      return rendered;
+    }
+
+    @Override
+    public String toString() {
+      return rendered;
+    }
+  }
+
+}
@@ -0,0 +1,401 @@
+package org.runaway.exception;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FrameCodec writes and reads stack frames and snapshots of RunawayException
+ * in compact binary format used by its serialization:
+ * <pre>
+ *   version, own stack flag, top frame,
+ *   string table - class, method, file and snapshot names, each written once,
+ *   stack elements (unless own stack) - string table indexes and line number,
+ *   frames with snapshots only - index delta, snapshots count, snapshots.
+ * </pre>
+ * Numbers are written as variable length ints (7 bits per byte).
+ * Own stack is the stack trace of the exception itself, which is already serialized
+ * by Throwable, so it is not written twice.
+ * Note: module and class loader names of stack elements (Java 9+) are not kept.
+ *
+ * <p>Read data is checked - counts, indexes and lengths - so corrupted or hostile data fails
+ * with InvalidObjectException. Arrays and strings of a count read from data are allocated
+ * in steps of MAX_PREALLOCATED, so a huge count fails at the end of data, not on allocation.
+ */
+
+final class FrameCodec {
+
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * Max number of elements (or string bytes) allocated for a count read from data
+   * before the elements are actually read.
+   */
+
+  private static final int MAX_PREALLOCATED = 1 << 16;
+
+  /**
+   * Decoded stack elements.
+   */
+
+  final StackTraceElement[] elements;
+
+  /**
+   * Decoded index of the first frame.
+   */
+
+  final int topFrame;
+
+  /**
+   * Decoded frames with snapshots, null if none.
+   */
+
+  final TraceFrame[] snappedFrames;
+
+  private FrameCodec(StackTraceElement[] elements, int topFrame, TraceFrame[] snappedFrames) {
+    this.elements = elements;
+    this.topFrame = topFrame;
+    this.snappedFrames = snappedFrames;
+  }
+
+  /**
+   * Write stack frames and snapshots.
+   * @param out destination.
+   * @param elements stack elements.
+   * @param ownStack true if elements are the same as the stack trace of the exception itself.
+   * @param topFrame index of the first frame.
+   * @param snappedFrames frames with snapshots, could be null.
+   * @throws IOException if destination fails.
+   */
+
+  static void write(DataOutput out, StackTraceElement[] elements, boolean ownStack,
+      int topFrame, TraceFrame[] snappedFrames) throws IOException {
+    Map<String, Integer> strings = new HashMap<>();
+    List<String> table = new ArrayList<>();
+
+    if (!ownStack) {
+      for (StackTraceElement element: elements) {
+        index(element.getClassName(), strings, table);
+        index(element.getMethodName(), strings, table);
+        index(element.getFileName(), strings, table);
+      }
+    }
+
+    // snapshots could be added by other threads meanwhile,
+    // so only the ones counted here are written
+    int snappedCount = 0;
+    SnapshotStore[] views = (snappedFrames == null) ? null : new SnapshotStore[snappedFrames.length];
+    int[] counts = (snappedFrames == null) ? null : new int[snappedFrames.length];
+    for (int index = 0; counts != null && index < counts.length; index++) {
+      TraceFrame frame = snappedFrames[index];
+      if (frame == null || frame.getSnapshotStore().isEmpty()) {
+        continue;
+      }
+      views[index] = frame.getSnapshotStore().view();
+      counts[index] = views[index].size();
+      if (counts[index] == 0) {
+        continue;
+      }
+      ++snappedCount;
+      for (int snapshot = 0; snapshot < counts[index]; snapshot++) {
+        index(views[index].getName(snapshot), strings, table);
+      }
+    }
+
+    writeVarInt(out, FORMAT_VERSION);
+    out.writeBoolean(ownStack);
+    writeVarInt(out, topFrame);
+
+    writeVarInt(out, table.size());
+    for (String string: table) {
+      writeString(out, string);
+    }
+
+    if (!ownStack) {
+      writeVarInt(out, elements.length);
+      for (StackTraceElement element: elements) {
+        writeVarInt(out, strings.get(element.getClassName()));
+        writeVarInt(out, strings.get(element.getMethodName()));
+        writeVarInt(out, stringIndex(element.getFileName(), strings));
+        writeVarLong(out, element.getLineNumber());
+      }
+    }
+
+    writeVarInt(out, snappedCount);
+    int previous = 0;
+    for (int index = 0; snappedCount > 0 && index < counts.length; index++) {
+      if (counts[index] == 0) {
+        continue;
+      }
+      writeVarInt(out, index - previous);
+      previous = index;
+      writeSnapshots(out, views[index], counts[index], strings);
+    }
+  }
+
+  private static void writeSnapshots(DataOutput out, SnapshotStore snapshots, int count,
+      Map<String, Integer> strings) throws IOException {
+    writeVarInt(out, count);
+    for (int snapshot = 0; snapshot < count; snapshot++) {
+      writeVarInt(out, stringIndex(snapshots.getName(snapshot), strings));
+      byte type = snapshots.getType(snapshot);
+      switch (type) {
+        case SnapshotStore.TYPE_OBJECT:
+        case SnapshotStore.TYPE_SUPPLIER:
+          // objects could be not serializable, write them as strings
+          out.writeByte(SnapshotStore.TYPE_OBJECT);
+          writeString(out, snapshots.getValue(snapshot));
+          break;
+        case SnapshotStore.TYPE_FLOAT:
+          out.writeByte(type);
+          out.writeInt((int) snapshots.getPrimitive(snapshot));
+          break;
+        case SnapshotStore.TYPE_DOUBLE:
+          out.writeByte(type);
+          out.writeLong(snapshots.getPrimitive(snapshot));
+          break;
+        default:
+          out.writeByte(type);
+          writeVarLong(out, snapshots.getPrimitive(snapshot));
+      }
+    }
+  }
+
+  /**
+   * Read stack frames and snapshots written by write().
+   * @param in source.
+   * Names and elements are interned if capture policy says so, see FrameInterner.
+   * @param ownStack stack trace of the exception itself, used if it was not written.
+   * @return decoded frames.
+   * @throws IOException if source fails or data is corrupted.
+   */
+
+  static FrameCodec read(DataInput in, StackTraceElement[] ownStack) throws IOException {
+    int version = readVarInt(in);
+    if (version != FORMAT_VERSION) {
+      throw new InvalidObjectException("Unsupported RunawayException format: " + version);
+    }
+
+    boolean isOwnStack = in.readBoolean();
+    int topFrame = readCount(in, "top frame");
+
+    boolean interning = CapturePolicies.getPolicy().isInterningFrames();
+    int tableSize = readCount(in, "string table size");
+    List<String> strings = new ArrayList<>(Math.min(tableSize, MAX_PREALLOCATED));
+    for (int index = 0; index < tableSize; index++) {
+      String string = readString(in);
+      if (string == null) {
+        throw new InvalidObjectException("Null in string table at " + index);
+      }
+      strings.add(interning ? FrameInterner.intern(string) : string);
+    }
+    String[] table = strings.toArray(new String[0]);
+
+    StackTraceElement[] elements = ownStack;
+    if (isOwnStack && ownStack == null) {
+      throw new InvalidObjectException("Own stack is not available");
+    }
+    if (!isOwnStack) {
+      int elementCount = readCount(in, "stack size");
+      List<StackTraceElement> stack = new ArrayList<>(Math.min(elementCount, MAX_PREALLOCATED));
+      for (int index = 0; index < elementCount; index++) {
+        String className = table[tableIndex(readVarInt(in), table)];
+        String methodName = table[tableIndex(readVarInt(in), table)];
+        int file = readVarInt(in);
+        int lineNumber = (int) readVarLong(in);
+        StackTraceElement element = new StackTraceElement(className, methodName,
+            (file == 0) ? null : table[tableIndex(file - 1, table)], lineNumber);
+        stack.add(interning ? FrameInterner.intern(element) : element);
+      }
+      elements = stack.toArray(new StackTraceElement[0]);
+    }
+
+    if (topFrame > elements.length) {
+      throw new InvalidObjectException("Top frame out of stack: " + topFrame);
+    }
+
+    TraceFrame[] snappedFrames = null;
+    int snappedCount = readCount(in, "snapped frames count");
+    int index = 0;
+    for (int frame = 0; frame < snappedCount; frame++) {
+      index += readVarInt(in);
+      if (index < 0 || index >= elements.length) {
+        throw new InvalidObjectException("Snapshot frame out of stack: " + index);
+      }
+      if (snappedFrames == null) {
+        snappedFrames = new TraceFrame[elements.length];
+      }
+      TraceFrame traceFrame = new TraceFrame(
+          new TraceNumber(elements.length - 1 - index), elements[index]);
+      readSnapshots(in, traceFrame.getSnapshotStore(), table);
+      snappedFrames[index] = traceFrame;
+    }
+
+    return new FrameCodec(elements, topFrame, snappedFrames);
+  }
+
+  private static void readSnapshots(DataInput in, SnapshotStore snapshots, String[] table)
+      throws IOException {
+    int count = readCount(in, "snapshots count");
+    for (int snapshot = 0; snapshot < count; snapshot++) {
+      int name = readVarInt(in);
+      byte type = in.readByte();
+      String snapshotName = (name == 0) ? null : table[tableIndex(name - 1, table)];
+      switch (type) {
+        case SnapshotStore.TYPE_OBJECT:
+          snapshots.add(snapshotName, readString(in));
+          break;
+        case SnapshotStore.TYPE_FLOAT:
+          snapshots.addPrimitive(snapshotName, type, in.readInt());
+          break;
+        case SnapshotStore.TYPE_DOUBLE:
+          snapshots.addPrimitive(snapshotName, type, in.readLong());
+          break;
+        case SnapshotStore.TYPE_BOOLEAN:
+        case SnapshotStore.TYPE_CHAR:
+        case SnapshotStore.TYPE_BYTE:
+        case SnapshotStore.TYPE_SHORT:
+        case SnapshotStore.TYPE_INT:
+        case SnapshotStore.TYPE_LONG:
+          snapshots.addPrimitive(snapshotName, type, readVarLong(in));
+          break;
+        default:
+          throw new InvalidObjectException("Unknown snapshot type: " + type);
+      }
+    }
+  }
+
+  /**
+   * Read count, which is never negative.
+   * @param what name of the count for error message.
+   */
+
+  private static int readCount(DataInput in, String what) throws IOException {
+    int count = readVarInt(in);
+    if (count < 0) {
+      throw new InvalidObjectException("Invalid " + what + ": " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Check string table index.
+   * @return the same index.
+   */
+
+  private static int tableIndex(int index, String[] table) throws InvalidObjectException {
+    if (index < 0 || index >= table.length) {
+      throw new InvalidObjectException("String index out of table: " + index);
+    }
+    return index;
+  }
+
+  private static void index(String string, Map<String, Integer> strings, List<String> table) {
+    if (string == null || strings.containsKey(string)) {
+      return;
+    }
+    strings.put(string, table.size());
+    table.add(string);
+  }
+
+  /**
+   * Get string table index of nullable string, shifted by one as zero means null.
+   */
+
+  private static int stringIndex(String string, Map<String, Integer> strings) {
+    return (string == null) ? 0 : strings.get(string) + 1;
+  }
+
+  /**
+   * Write string as UTF-8 bytes preceded by length + 1, zero length means null.
+   */
+
+  static void writeString(DataOutput out, String string) throws IOException {
+    if (string == null) {
+      writeVarInt(out, 0);
+      return;
+    }
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length + 1);
+    out.write(bytes);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    int length = readCount(in, "string length");
+    if (length == 0) {
+      return null;
+    }
+    if (length - 1 <= MAX_PREALLOCATED) {
+      byte[] bytes = new byte[length - 1];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // long string is read in steps, so corrupted length fails at the end of data
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_PREALLOCATED);
+    byte[] step = new byte[MAX_PREALLOCATED];
+    for (int left = length - 1; left > 0; left -= step.length) {
+      int stepLength = Math.min(left, step.length);
+      in.readFully(step, 0, stepLength);
+      bytes.write(step, 0, stepLength);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write non-negative int, 7 bits per byte.
+   */
+
+  static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new InvalidObjectException("Malformed varint");
+  }
+
+  /**
+   * Write any long, zigzag encoded so that small negative values are short too.
+   */
+
+  static void writeVarLong(DataOutput out, long value) throws IOException {
+    long zigzag = (value << 1) ^ (value >> 63);
+    while ((zigzag & ~0x7FL) != 0) {
+      out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+      zigzag >>>= 7;
+    }
+    out.writeByte((int) zigzag);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    long zigzag = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      int b = in.readByte();
+      zigzag |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+      }
+    }
+    throw new InvalidObjectException("Malformed varlong");
+  }
+
+}
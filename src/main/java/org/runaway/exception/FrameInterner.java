@@ -0,0 +1,103 @@
+package org.runaway.exception;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * FrameInterner keeps canonical instances of stack trace elements and of class, method
+ * and file names, so many retained exceptions of the same origin (e.g. in dead-letter queue
+ * or test harness) share their frames instead of keeping equal copies,
+ * see CapturePolicy.isInterningFrames().
+ *
+ * <p>Canonical instances are weakly referenced, so they are collected as soon as
+ * no exception uses them. The table is split into stripes by hash code, each one
+ * a WeakHashMap with its own lock, so threads interning different frames
+ * rarely wait for each other.
+ */
+
+final class FrameInterner {
+
+  /**
+   * Number of stripes, power of 2.
+   */
+
+  private static final int STRIPES = 32;
+
+  private static final Stripe[] TABLE = createTable();
+
+  private FrameInterner() {
+  }
+
+  private static Stripe[] createTable() {
+    Stripe[] table = new Stripe[STRIPES];
+    for (int index = 0; index < STRIPES; index++) {
+      table[index] = new Stripe();
+    }
+    return table;
+  }
+
+  /**
+   * Replace stack trace elements by their canonical instances, in place.
+   * @param stack stack trace, elements could be null.
+   */
+
+  static void internAll(StackTraceElement[] stack) {
+    for (int index = 0; index < stack.length; index++) {
+      stack[index] = intern(stack[index]);
+    }
+  }
+
+  /**
+   * Get canonical instance of stack trace element.
+   * @param element element, could be null.
+   * @return equal canonical element, or null.
+   */
+
+  static StackTraceElement intern(StackTraceElement element) {
+    return (element == null) ? null : (StackTraceElement) internObject(element);
+  }
+
+  /**
+   * Get canonical instance of name.
+   * @param name class, method or file name, could be null.
+   * @return equal canonical string, or null.
+   */
+
+  static String intern(String name) {
+    return (name == null) ? null : (String) internObject(name);
+  }
+
+  private static Object internObject(Object value) {
+    int hash = value.hashCode();
+    Stripe stripe = TABLE[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    synchronized (stripe) {
+      WeakReference<Object> reference = stripe.get(value);
+      Object canonical = (reference == null) ? null : reference.get();
+      if (canonical != null) {
+        return canonical;
+      }
+      // value is referenced weakly by both key and reference, so it is not kept by the table
+      stripe.put(value, new WeakReference<>(value));
+      return value;
+    }
+  }
+
+  /**
+   * Get number of canonical instances, including ones not yet collected.
+   * @return number of instances.
+   */
+
+  static int size() {
+    int size = 0;
+    for (Stripe stripe: TABLE) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  private static final class Stripe extends WeakHashMap<Object, WeakReference<Object>> {
+  }
+
+}
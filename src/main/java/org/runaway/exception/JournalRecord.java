@@ -0,0 +1,195 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * JournalRecord is RunawayException read from ErrorJournal: its header, breadcrumbs
+ * and submission site, stack frames and snapshots as they were when the exception
+ * was appended, and its cause bugs. Snapshot values are strings.
+ */
+
+public final class JournalRecord {
+
+  private final long position;
+
+  private final int payloadLength;
+
+  private final long timestamp;
+
+  private final int techSupportCode;
+
+  private final long threadId;
+
+  private final long fingerprint;
+
+  private final String className;
+
+  private final String message;
+
+  /**
+   * Breadcrumbs and submission site lines as rendered, could be empty.
+   */
+
+  private final String lines;
+
+  private final StackTraceElement[] stackElements;
+
+  private final int topFrame;
+
+  private final TraceFrame[] snappedFrames;
+
+  /**
+   * Line of snapshots of frames not captured as rendered, could be empty.
+   */
+
+  private final String uncapturedLine;
+
+  /**
+   * Cause bug, set only while the record is decoded.
+   */
+
+  private JournalRecord causeBug = null;
+
+  JournalRecord(long position, int payloadLength, long timestamp, int techSupportCode,
+      long threadId, long fingerprint, String className, String message, String lines,
+      FrameCodec frames, String uncapturedLine) {
+    this.position = position;
+    this.payloadLength = payloadLength;
+    this.timestamp = timestamp;
+    this.techSupportCode = techSupportCode;
+    this.threadId = threadId;
+    this.fingerprint = fingerprint;
+    this.className = className;
+    this.message = message;
+    this.lines = (lines == null) ? "" : lines;
+    this.stackElements = frames.elements;
+    this.topFrame = Math.min(frames.topFrame, frames.elements.length);
+    this.snappedFrames = frames.snappedFrames;
+    this.uncapturedLine = (uncapturedLine == null) ? "" : uncapturedLine;
+  }
+
+  /**
+   * Get position of the record in the journal, records are ordered by position.
+   * @return position.
+   */
+
+  public long getPosition() {
+    return position;
+  }
+
+  int getPayloadLength() {
+    return payloadLength;
+  }
+
+  /**
+   * Get time the exception was appended to the journal.
+   * @return time in milliseconds since epoch.
+   */
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public int getTechSupportCode() {
+    return techSupportCode;
+  }
+
+  public long getThreadId() {
+    return threadId;
+  }
+
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Get class name of the exception.
+   * @return class name, could be null.
+   */
+
+  public String getClassName() {
+    return className;
+  }
+
+  /**
+   * Get message of the exception, see RunawayException.getMessage().
+   * @return message, could be null.
+   */
+
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Get cause bug - RunawayException of another thread, see RunawayException.of(Throwable).
+   * Position and time of the cause bug are the ones of this record.
+   * @return cause bug, or null if there is none.
+   */
+
+  public JournalRecord getCauseBug() {
+    return causeBug;
+  }
+
+  void setCauseBug(JournalRecord causeBug) {
+    this.causeBug = causeBug;
+  }
+
+  /**
+   * Get stack frames.
+   * @return read-only list of frames, frames without snapshots are created on each access.
+   */
+
+  public List<TraceFrame> getStackFrames() {
+    return new AbstractList<TraceFrame>() {
+      @Override
+      public TraceFrame get(int index) {
+        if (index < 0 || index >= size()) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        int elementIndex = topFrame + index;
+        TraceFrame frame = (snappedFrames == null) ? null : snappedFrames[elementIndex];
+        return (frame != null) ? frame : new TraceFrame(
+            new TraceNumber(stackElements.length - 1 - elementIndex),
+            stackElements[elementIndex]);
+      }
+
+      @Override
+      public int size() {
+        return stackElements.length - topFrame;
+      }
+    };
+  }
+
+  /**
+   * Render the record the same way as RunawayException.toString(), preceded by time.
+   * Frames of cause bugs are rendered in full.
+   */
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(512);
+    builder.append(Instant.ofEpochMilli(timestamp)).append(' ');
+    writeException(builder);
+    for (JournalRecord bug = causeBug; bug != null; bug = bug.causeBug) {
+      builder.append("Cause bug: ");
+      bug.writeException(builder);
+    }
+    return builder.toString();
+  }
+
+  private void writeException(StringBuilder builder) {
+    builder.append(className).append(": ").append(message).append('\n');
+    builder.append(lines);
+    try {
+      RunawayException.writeFrames(builder, stackElements, topFrame, stackElements.length,
+          snappedFrames);
+    } catch (IOException e) { /* should not be here */
+      builder.append("failed to stringify frames. Msg: ").append(e.toString());
+    }
+    builder.append(uncapturedLine);
+  }
+
+}
@@ -0,0 +1,229 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * JsonEncoder writes RunawayException as JSON object for log aggregators,
+ * with the same frames and snapshots as toString() and the same render depth:
+ * <pre>
+ * {"class":"org.runaway.exception.RunawayException","techSupportCode":1234,"threadId":1,
+ *  "fingerprint":"9e3779b97f4a7c15","sampled":false,"message":"...",
+ *  "cause":{"class":"java.sql.SQLException","message":"..."},
+ *  "breadcrumbs":[{"name":"orderId","value":5017}],
+ *  "submittedBy":[{"threadId":1,"frames":[{"class":"A","method":"main","file":"A.java","line":9}]}],
+ *  "frames":[{"n":2,"class":"C","method":"getData","file":"C.java","line":17,
+ *    "snapshots":[{"name":"paramA","value":54110}]}],
+ *  "framesOmitted":0,
+ *  "uncaptured":[{"name":"userId","value":7}],
+ *  "causeBug":{...}}
+ * </pre>
+ * Primitive snapshots are written as JSON numbers and booleans, objects as strings
+ * limited the same way as by toString(), see CapturePolicy.getSnapshotBudget().
+ * Fingerprint is written as hex string, as JSON numbers could lose long precision.
+ * Uncaptured are snapshots of frames cut off by capture depth.
+ * Cause bug is RunawayException of another thread, see RunawayException.of().
+ *
+ * <p>JSON is encoded into reusable per-thread byte buffer, with no reflection
+ * nor intermediate objects, and then written to destination at once.
+ */
+
+public final class JsonEncoder {
+
+  /**
+   * Max number of cause bugs written, protects from cyclic cause chain.
+   */
+
+  private static final int MAX_CAUSE_BUGS = 16;
+
+  private JsonEncoder() {
+  }
+
+  /**
+   * Write exception as JSON.
+   * @param exception exception to write.
+   * @param out destination.
+   * @throws IOException if destination fails.
+   */
+
+  public static void encode(RunawayException exception, OutputStream out) throws IOException {
+    JsonWriter writer = JsonWriter.acquire();
+    try {
+      writeException(writer, exception, MAX_CAUSE_BUGS);
+      writer.writeTo(out);
+    } finally {
+      writer.release();
+    }
+  }
+
+  /**
+   * Write exception as JSON.
+   * @param exception exception to write.
+   * @param out destination.
+   * @throws java.nio.BufferOverflowException if there is not enough room, nothing is written.
+   */
+
+  public static void encode(RunawayException exception, ByteBuffer out) {
+    JsonWriter writer = JsonWriter.acquire();
+    try {
+      writeException(writer, exception, MAX_CAUSE_BUGS);
+      writer.writeTo(out);
+    } finally {
+      writer.release();
+    }
+  }
+
+  private static void writeException(JsonWriter writer, RunawayException exception,
+      int causeBugs) {
+    writer.beginObject();
+    writer.name("class").value(exception.getClass().getName());
+    writer.name("techSupportCode").value(exception.getTechSupportCode());
+    writer.name("threadId").value(exception.getThreadId());
+    writer.name("fingerprint").value(Long.toHexString(exception.getFingerprint()));
+    writer.name("sampled").value(exception.isSampled());
+    writer.name("message").value(exception.getRawMessage());
+
+    if (exception.getCauseExceptionName() != null) {
+      writer.name("cause").beginObject();
+      writer.name("class").value(exception.getCauseExceptionName());
+      writer.name("message").value(exception.getCauseExceptionMessage());
+      writer.endObject();
+    }
+
+    SnapshotStore breadcrumbs = exception.getBreadcrumbs();
+    if (breadcrumbs != null && !breadcrumbs.isEmpty()) {
+      CapturePolicy policy = CapturePolicies.getPolicy();
+      writeSnapshots(writer, "breadcrumbs", breadcrumbs,
+          SnapshotFormat.limit(policy.getMaxSnapshotLength()),
+          SnapshotFormat.limit(policy.getSnapshotBudget()));
+    }
+
+    SubmissionSite submissionSite = exception.getSubmissionSite();
+    if (submissionSite != null) {
+      writeSubmissionSite(writer, submissionSite);
+    }
+
+    writeFrames(writer, exception);
+
+    SnapshotStore uncaptured = exception.getUncapturedSnapshots();
+    if (uncaptured != null && !uncaptured.isEmpty()) {
+      CapturePolicy policy = CapturePolicies.getPolicy();
+      writeSnapshots(writer, "uncaptured", uncaptured,
+          SnapshotFormat.limit(policy.getMaxSnapshotLength()),
+          SnapshotFormat.limit(policy.getSnapshotBudget()));
+    }
+
+    Throwable cause = exception.getCause();
+    if (cause instanceof RunawayException && causeBugs > 0) {
+      writer.name("causeBug");
+      writeException(writer, (RunawayException) cause, causeBugs - 1);
+    }
+    writer.endObject();
+  }
+
+  /**
+   * Write submission sites of the chain, the most recent first.
+   */
+
+  private static void writeSubmissionSite(JsonWriter writer, SubmissionSite submissionSite) {
+    writer.name("submittedBy").beginArray();
+    for (SubmissionSite site = submissionSite; site != null; site = site.getParent()) {
+      writer.beginObject();
+      writer.name("threadId").value(site.getThreadId());
+      writer.name("frames").beginArray();
+      for (StackTraceElement trace: site.getFrames()) {
+        writer.beginObject();
+        writer.name("class").value(trace.getClassName());
+        writer.name("method").value(trace.getMethodName());
+        if (trace.getFileName() != null) {
+          writer.name("file").value(trace.getFileName());
+        }
+        writer.name("line").value(trace.getLineNumber());
+        writer.endObject();
+      }
+      writer.endArray();
+      writer.endObject();
+    }
+    writer.endArray();
+  }
+
+  private static void writeFrames(JsonWriter writer, RunawayException exception) {
+    StackTraceElement[] stackElements = exception.getStackElements();
+    int topFrame = exception.getTopFrame();
+    int traceLength = Math.max(stackElements.length - topFrame, 0);
+    CapturePolicy policy = CapturePolicies.getPolicy();
+    int renderDepth = policy.getRenderDepth();
+    int printLimit = (renderDepth <= 0 || traceLength < renderDepth) ? traceLength : renderDepth;
+    int maxLength = SnapshotFormat.limit(policy.getMaxSnapshotLength());
+    int budget = SnapshotFormat.limit(policy.getSnapshotBudget());
+
+    writer.name("frames").beginArray();
+    for (int index = topFrame; index < topFrame + printLimit; index++) {
+      StackTraceElement trace = stackElements[index];
+      writer.beginObject();
+      writer.name("n").value(stackElements.length - 1 - index);
+      writer.name("class").value(trace.getClassName());
+      writer.name("method").value(trace.getMethodName());
+      if (trace.getFileName() != null) {
+        writer.name("file").value(trace.getFileName());
+      }
+      writer.name("line").value(trace.getLineNumber());
+
+      TraceFrame frame = exception.getSnappedFrame(index);
+      if (frame != null && !frame.getSnapshotStore().isEmpty()) {
+        budget = writeSnapshots(writer, "snapshots", frame.getSnapshotStore(), maxLength, budget);
+      }
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.name("framesOmitted").value(traceLength - printLimit);
+  }
+
+  /**
+   * Write snapshots of one frame, or breadcrumbs.
+   * @return the rest of snapshot budget.
+   */
+
+  private static int writeSnapshots(JsonWriter writer, String name, SnapshotStore snapshots,
+      int maxLength, int budget) {
+    writer.name(name).beginArray();
+    SnapshotStore view = snapshots.view();
+    int count = view.size();
+    for (int snapshot = 0; snapshot < count; snapshot++) {
+      writer.beginObject();
+      writer.name("name").value(view.getName(snapshot));
+      writer.name("value");
+
+      long bits = view.getPrimitive(snapshot);
+      switch (view.getType(snapshot)) {
+        case SnapshotStore.TYPE_OBJECT:
+        case SnapshotStore.TYPE_SUPPLIER:
+          String value = view.getValue(snapshot, Math.min(maxLength, budget));
+          writer.value(value);
+          if (value != null) {
+            budget -= Math.min(value.length(), Math.min(maxLength, budget));
+          }
+          break;
+        case SnapshotStore.TYPE_CHAR:
+          writer.value(view.getValue(snapshot));
+          break;
+        case SnapshotStore.TYPE_BOOLEAN:
+          writer.value(bits != 0);
+          break;
+        case SnapshotStore.TYPE_FLOAT:
+          writer.value(Float.intBitsToFloat((int) bits));
+          break;
+        case SnapshotStore.TYPE_DOUBLE:
+          writer.value(Double.longBitsToDouble(bits));
+          break;
+        default:
+          writer.value(bits);
+      }
+      writer.endObject();
+    }
+    writer.endArray();
+    return budget;
+  }
+
+}
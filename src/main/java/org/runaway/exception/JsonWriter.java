@@ -0,0 +1,340 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * JsonWriter writes JSON as UTF-8 bytes into growable byte array, escaping strings
+ * and converting numbers with no intermediate strings, see JsonEncoder.
+ * Commas are inserted by the writer: each name() or value() of a container
+ * except the first one is preceded by comma.
+ *
+ * <p>Writers are reused per thread like RenderBuffer, nested encoding on the same thread
+ * gets a new writer.
+ */
+
+final class JsonWriter {
+
+  private static final int BUFFER_SIZE = 1024;
+
+  /**
+   * Max size of the buffer kept for reuse, in bytes.
+   */
+
+  private static final int MAX_KEPT_SIZE = 256 * 1024;
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+  private static final ThreadLocal<JsonWriter> WRITERS = ThreadLocal.withInitial(JsonWriter::new);
+
+  private byte[] bytes = new byte[BUFFER_SIZE];
+
+  private int size = 0;
+
+  /**
+   * True if the next name or value is the first one of its container.
+   */
+
+  private boolean first = true;
+
+  private boolean inUse = false;
+
+  private JsonWriter() {
+  }
+
+  /**
+   * Get empty writer of the current thread, or new writer if it is already in use.
+   * @return empty writer, to be released by release() when done.
+   */
+
+  static JsonWriter acquire() {
+    JsonWriter writer = WRITERS.get();
+    if (writer.inUse) {
+      return new JsonWriter();
+    }
+    writer.inUse = true;
+    writer.size = 0;
+    writer.first = true;
+    return writer;
+  }
+
+  /**
+   * Release writer acquired by acquire().
+   */
+
+  void release() {
+    if (bytes.length > MAX_KEPT_SIZE) {
+      bytes = new byte[BUFFER_SIZE];
+    }
+    inUse = false;
+  }
+
+  JsonWriter beginObject() {
+    separate();
+    append((byte) '{');
+    first = true;
+    return this;
+  }
+
+  JsonWriter endObject() {
+    append((byte) '}');
+    first = false;
+    return this;
+  }
+
+  JsonWriter beginArray() {
+    separate();
+    append((byte) '[');
+    first = true;
+    return this;
+  }
+
+  JsonWriter endArray() {
+    append((byte) ']');
+    first = false;
+    return this;
+  }
+
+  /**
+   * Write object member name, to be followed by its value.
+   * @param name name, written as is - it should not need escaping.
+   */
+
+  JsonWriter name(String name) {
+    separate();
+    append((byte) '"');
+    int length = name.length();
+    ensure(length + 2);
+    for (int index = 0; index < length; index++) {
+      bytes[size++] = (byte) name.charAt(index);
+    }
+    bytes[size++] = '"';
+    bytes[size++] = ':';
+    first = true;
+    return this;
+  }
+
+  /**
+   * Write string value, escaped, or null.
+   */
+
+  JsonWriter value(String value) {
+    separate();
+    if (value == null) {
+      append(NULL);
+      return this;
+    }
+
+    int length = value.length();
+    // room for 1 byte per remaining char and closing quote is kept,
+    // so the most common case - ASCII with no escapes - needs no checks
+    ensure(length + 2);
+    bytes[size++] = '"';
+    for (int index = 0; index < length; index++) {
+      char ch = value.charAt(index);
+      if (ch >= 0x20 && ch < 0x80 && ch != '"' && ch != '\\') {
+        bytes[size++] = (byte) ch;
+      } else {
+        ensure(length - index + 6);
+        appendEscaped(value, index);
+        // surrogate pair takes two chars
+        if (Character.isHighSurrogate(ch) && index + 1 < length
+            && Character.isLowSurrogate(value.charAt(index + 1))) {
+          ++index;
+        }
+      }
+    }
+    bytes[size++] = '"';
+    return this;
+  }
+
+  /**
+   * Append char at index escaped or encoded as UTF-8, up to 6 bytes.
+   */
+
+  private void appendEscaped(String value, int index) {
+    char ch = value.charAt(index);
+    switch (ch) {
+      case '"':
+      case '\\':
+        bytes[size++] = '\\';
+        bytes[size++] = (byte) ch;
+        return;
+      case '\n':
+        bytes[size++] = '\\';
+        bytes[size++] = 'n';
+        return;
+      case '\r':
+        bytes[size++] = '\\';
+        bytes[size++] = 'r';
+        return;
+      case '\t':
+        bytes[size++] = '\\';
+        bytes[size++] = 't';
+        return;
+      default:
+        break;
+    }
+
+    if (ch < 0x20) {
+      bytes[size++] = '\\';
+      bytes[size++] = 'u';
+      bytes[size++] = '0';
+      bytes[size++] = '0';
+      bytes[size++] = HEX[ch >> 4];
+      bytes[size++] = HEX[ch & 0xF];
+    } else if (ch < 0x800) {
+      bytes[size++] = (byte) (0xC0 | (ch >> 6));
+      bytes[size++] = (byte) (0x80 | (ch & 0x3F));
+    } else if (!Character.isSurrogate(ch)) {
+      bytes[size++] = (byte) (0xE0 | (ch >> 12));
+      bytes[size++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+      bytes[size++] = (byte) (0x80 | (ch & 0x3F));
+    } else if (Character.isHighSurrogate(ch) && index + 1 < value.length()
+        && Character.isLowSurrogate(value.charAt(index + 1))) {
+      int codePoint = Character.toCodePoint(ch, value.charAt(index + 1));
+      bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+      bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+      bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+      bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+    } else {
+      // unpaired surrogate is not valid UTF-8
+      bytes[size++] = '?';
+    }
+  }
+
+  JsonWriter value(long value) {
+    separate();
+    if (value == Long.MIN_VALUE) {
+      append(MIN_LONG);
+      return this;
+    }
+
+    ensure(20);
+    if (value < 0) {
+      bytes[size++] = '-';
+      value = -value;
+    }
+    if (value <= Integer.MAX_VALUE) {
+      // int division is much faster, and most numbers are ints
+      appendDigits((int) value);
+      return this;
+    }
+
+    int digits = 1;
+    for (long rest = value / 10; rest != 0; rest /= 10) {
+      ++digits;
+    }
+    for (int index = size + digits - 1; index >= size; index--) {
+      bytes[index] = (byte) ('0' + (value % 10));
+      value /= 10;
+    }
+    size += digits;
+    return this;
+  }
+
+  private void appendDigits(int value) {
+    int digits = 1;
+    for (int bound = 10; digits < 10 && value >= bound; bound *= 10) {
+      ++digits;
+    }
+    for (int index = size + digits - 1; index >= size; index--) {
+      int rest = value / 10;
+      bytes[index] = (byte) ('0' + (value - rest * 10));
+      value = rest;
+    }
+    size += digits;
+  }
+
+  /**
+   * Write double value, or string for NaN and infinity which JSON numbers do not have.
+   */
+
+  JsonWriter value(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return value(Double.toString(value));
+    }
+    return number(Double.toString(value));
+  }
+
+  /**
+   * Write float value as Float.toString() does, so it is not widened to double digits,
+   * or string for NaN and infinity which JSON numbers do not have.
+   */
+
+  JsonWriter value(float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      return value(Float.toString(value));
+    }
+    return number(Float.toString(value));
+  }
+
+  private JsonWriter number(String number) {
+    separate();
+    ensure(number.length());
+    for (int index = 0; index < number.length(); index++) {
+      bytes[size++] = (byte) number.charAt(index);
+    }
+    return this;
+  }
+
+  JsonWriter value(boolean value) {
+    separate();
+    append(value ? TRUE : FALSE);
+    return this;
+  }
+
+  private void separate() {
+    if (!first) {
+      append((byte) ',');
+    }
+    first = false;
+  }
+
+  private void append(byte value) {
+    ensure(1);
+    bytes[size++] = value;
+  }
+
+  private void append(byte[] value) {
+    ensure(value.length);
+    System.arraycopy(value, 0, bytes, size, value.length);
+    size += value.length;
+  }
+
+  private void ensure(int count) {
+    if (size + count > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, size);
+  }
+
+  /**
+   * Write JSON into buffer.
+   * @param out destination.
+   * @throws java.nio.BufferOverflowException if there is not enough room, nothing is written.
+   */
+
+  void writeTo(ByteBuffer out) {
+    out.put(bytes, 0, size);
+  }
+
+}
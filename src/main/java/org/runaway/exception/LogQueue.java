@@ -0,0 +1,134 @@
+package org.runaway.exception;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * LogQueue is bounded lock-free queue of exceptions to log, with many producers
+ * (threads reporting exceptions) and single consumer (RunawayLog thread).
+ *
+ * <p>Each slot has a sequence number telling whose turn it is: a producer reserves
+ * the next slot by CAS of the tail, fills the slot and publishes it by its sequence,
+ * the consumer takes published slots in order and frees them for the next round.
+ * Offer fails when the queue is full, the caller decides to drop or retry.
+ */
+
+final class LogQueue {
+
+  private final AtomicReferenceArray<RunawayException> slots;
+
+  private final AtomicLongArray sequences;
+
+  private final int mask;
+
+  /**
+   * Sequence number of the next slot to fill, shared by producers.
+   */
+
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Sequence number of the next slot to take, written by the consumer only.
+   */
+
+  private volatile long head = 0;
+
+  /**
+   * Constructor.
+   * @param capacity max number of exceptions queued, rounded up to power of 2.
+   */
+
+  LogQueue(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity <= 0");
+    }
+    int size = Math.max(Integer.highestOneBit(capacity - 1) << 1, 1);
+    slots = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int slot = 0; slot < size; slot++) {
+      sequences.set(slot, slot);
+    }
+    mask = size - 1;
+  }
+
+  /**
+   * Add exception to the queue.
+   * @param exception exception, not null.
+   * @return false if the queue is full.
+   */
+
+  boolean offer(RunawayException exception) {
+    while (true) {
+      long sequence = tail.get();
+      int slot = (int) sequence & mask;
+      long slotSequence = sequences.get(slot);
+
+      if (slotSequence == sequence) {
+        if (tail.compareAndSet(sequence, sequence + 1)) {
+          slots.lazySet(slot, exception);
+          // publish the slot to the consumer
+          sequences.set(slot, sequence + 1);
+          return true;
+        }
+      } else if (slotSequence < sequence) {
+        // slot of the previous round is not taken yet
+        return false;
+      }
+      // otherwise another producer took the slot, retry with the new tail
+    }
+  }
+
+  /**
+   * Take the oldest exception, to be called by the consumer only.
+   * @return exception, or null if the queue is empty or the oldest slot is not published yet.
+   */
+
+  RunawayException poll() {
+    long sequence = head;
+    int slot = (int) sequence & mask;
+    if (sequences.get(slot) != sequence + 1) {
+      return null;
+    }
+
+    RunawayException exception = slots.get(slot);
+    slots.lazySet(slot, null);
+    // free the slot for the next round
+    sequences.set(slot, sequence + mask + 1);
+    head = sequence + 1;
+    return exception;
+  }
+
+  boolean isEmpty() {
+    long sequence = head;
+    return sequences.get((int) sequence & mask) != sequence + 1;
+  }
+
+  /**
+   * Get number of exceptions in the queue, including slots reserved but not yet published.
+   * @return queue size, could be outdated.
+   */
+
+  int size() {
+    return (int) (tail.get() - head);
+  }
+
+  /**
+   * Get number of exceptions offered so far.
+   * @return sequence number of the next slot to fill.
+   */
+
+  long offered() {
+    return tail.get();
+  }
+
+  /**
+   * Get number of exceptions taken so far.
+   * @return sequence number of the next slot to take.
+   */
+
+  long taken() {
+    return head;
+  }
+
+}
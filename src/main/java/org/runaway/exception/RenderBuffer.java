@@ -0,0 +1,78 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+
+/**
+ * RenderBuffer provides reusable per-thread StringBuilder to render exceptions
+ * into strings, so toString() and getMessage() do not allocate new buffers every time.
+ * Nested rendering on the same thread (e.g. exception snapshot of another exception)
+ * gets a new buffer, and buffers grown too large are not kept.
+ */
+
+final class RenderBuffer {
+
+  private static final int BUFFER_SIZE = 512;
+
+  /**
+   * Max capacity of the buffer kept for reuse, in chars.
+   */
+
+  private static final int MAX_KEPT_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<RenderBuffer> BUFFERS =
+      ThreadLocal.withInitial(RenderBuffer::new);
+
+  private StringBuilder builder = new StringBuilder(BUFFER_SIZE);
+
+  private boolean inUse = false;
+
+  private RenderBuffer() {
+  }
+
+  /**
+   * Get empty buffer of the current thread, or new buffer if it is already in use.
+   * @return empty buffer, to be released by release() when done.
+   */
+
+  static StringBuilder acquire() {
+    RenderBuffer buffer = BUFFERS.get();
+    if (buffer.inUse) {
+      return new StringBuilder(BUFFER_SIZE);
+    }
+    buffer.inUse = true;
+    buffer.builder.setLength(0);
+    return buffer.builder;
+  }
+
+  /**
+   * Release buffer acquired by acquire().
+   * @param builder buffer to release.
+   */
+
+  static void release(StringBuilder builder) {
+    RenderBuffer buffer = BUFFERS.get();
+    if (buffer.builder != builder) {
+      return;
+    }
+    if (builder.capacity() > MAX_KEPT_SIZE) {
+      buffer.builder = new StringBuilder(BUFFER_SIZE);
+    }
+    buffer.inUse = false;
+  }
+
+  /**
+   * Append number, with no intermediate string if destination is StringBuilder.
+   * @param out destination.
+   * @param value number to append.
+   * @throws IOException if destination fails.
+   */
+
+  static void appendNumber(Appendable out, long value) throws IOException {
+    if (out instanceof StringBuilder) {
+      ((StringBuilder) out).append(value);
+      return;
+    }
+    out.append(Long.toString(value));
+  }
+
+}
@@ -1,10 +1,16 @@
 package org.runaway.exception;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
 
 /**
  * RunawayException is unchecked runtime exception raised in situations not properly handled -
@@ -21,7 +27,7 @@ import java.util.UUID;
  */
 
 public class RunawayException extends RuntimeException implements Serializable {
-  private static final long serialVersionUID = 20030101L;
+  private static final long serialVersionUID = 20261016L;
 
   /**
    * Instance class name, considering subclasses.
@@ -40,93 +46,519 @@ public class RunawayException extends RuntimeException implements Serializable {
   private final long threadId;
 
   /**
-  * Stack trace frames - list of frames representing stack trace of original exception.
-  * Each contains both standard StackTraceElement representing the specified execution point
-  * as well as snapshots - [name x value] pairs, representing some variables at that
-  * same execution point.
+  * Stack trace of original exception, kept "as is" - frames are not copied.
   * Could be empty but not null.
+  * Note: stack frames and snapshots are serialized by FrameCodec, see writeObject().
   */
-  // TODO if empty coll needed?
-  private List<TraceFrame> stackFrames = Collections.emptyList();
+  private transient StackTraceElement[] stackElements = EMPTY_STACK;
+
+  /**
+   * Index of the first (the most recent) element of stackElements used as stack frame,
+   * elements above it are cut off.
+   */
+  private transient int topFrame = 0;
+
+  /**
+  * Stack trace frames having snapshots - [name x value] pairs, representing some variables
+  * at the execution point of the matching element of stackElements (same index).
+  * Frames are created only when the first snapshot is added, the array itself is
+  * created with the first snapshot of this exception, so it could be null.
+  * Frames are created under the lock of this exception, see findFrame().
+  */
+  private transient volatile TraceFrame[] snappedFrames = null;
+
+  /**
+   * Breadcrumbs of the thread which created this exception, copied by constructor,
+   * null if the trail was empty.
+   */
+  private SnapshotStore breadcrumbs = null;
+
+  /**
+   * Submission site of the task which created this exception, copied by constructor,
+   * null if the task was not submitted through RunawayExecutors.
+   */
+  private SubmissionSite submissionSite = null;
+
+  /**
+   * Snapshots taken in frames cut off by capture depth (see CapturePolicy.getCaptureDepth()),
+   * rendered as "Frames not captured", null until the first one.
+   */
+  private volatile SnapshotStore uncapturedSnapshots = null;
+
+  private static final StackTraceElement[] EMPTY_STACK = new StackTraceElement[0];
+
+  /**
+   * Rendered toString() kept for repeated logging, reset when snapshot is added.
+   * While toString() renders, it is a mark object instead, see toString().
+   */
+  private transient volatile Object rendered = null;
+
+  private static final AtomicReferenceFieldUpdater<RunawayException, Object> RENDERED =
+      AtomicReferenceFieldUpdater.newUpdater(RunawayException.class, Object.class, "rendered");
+
+  /**
+   * Rendered getMessage(), it does not depend on snapshots.
+   */
+  private transient volatile String renderedMessage = null;
 
   /**
    * this error id could be both logged into log files and provided to user,
    * to bind/find general user-friendly error message to the real issue.
    */
-  private final UUID errorGuid = UUID.randomUUID();
+  private final int techSupportCode = TechSupportCodes.next();
+
+  /**
+   * Globally unique error id, created only if requested as it uses SecureRandom.
+   */
+  private volatile UUID errorGuid = null;
+
+  private static final AtomicReferenceFieldUpdater<RunawayException, UUID> ERROR_GUID =
+      AtomicReferenceFieldUpdater.newUpdater(RunawayException.class, UUID.class, "errorGuid");
 
   /**
-   * max number of stack trace elements to be serialized when logged.
+   * True if this exception has no stack trace of its own, but shares stack trace
+   * of an earlier exception of the same throw site, see ThrowSampling.
    */
-  // TODO allow external config as interface impl
-  private static final int MAX_STACK_TRACE_SIZE = 32;
+  private boolean sampled = false;
+
+  /**
+   * Fingerprint of this error - hash of cause class name and the most recent frames,
+   * the same for repeated errors of the same origin, see getFingerprint().
+   */
+  private long fingerprint = 0;
+
+  /**
+   * Number of the most recent frames used for fingerprint.
+   */
+  private static final int FINGERPRINT_DEPTH = 8;
+
+  /**
+   * Depth of stack trace captured by constructor instead of filling in stack trace,
+   * Integer.MAX_VALUE for complete stack trace, 0 if stack trace is filled in,
+   * see fillInStackTrace().
+   * Note: the field has no initializer, as it is set by Throwable constructor
+   * and initializers run after it.
+   */
+  private transient int captureDepth;
+
+  /**
+   * True if stackElements is the complete stack of the creating thread,
+   * so frame numbers of its current stack are the same, see frameNumber().
+   */
+  private transient boolean completeStack;
+
+  /**
+   * True if stackElements could be truncated by capture depth, so the frame of snap()
+   * not found there is most likely cut off, see findFrame().
+   */
+  private transient boolean truncatedStack;
+
+  /**
+   * Frames by class and method name, to find frames of woven call sites (see CallSites)
+   * with no stack walk. Open addressing table created on the first lookup, entry is
+   * frame index + 1, negative if several frames have the same class and method,
+   * e.g. recursive method.
+   */
+  private transient int[] siteTable = null;
+
+  private static final int SITE_NOT_FOUND = -1;
+
+  private static final int SITE_AMBIGUOUS = -2;
 
-  private static final int BUFFER_SIZE = 512;
-  
   /**
    * Convenience method to add one snapshot to current stack trace frame.
+   * Only reference to the object is kept, it is converted to string when
+   * the exception is rendered, so the value shown is the one at that time.
+   * Use snapNow() for mutable objects.
    * @param name Name of variable, or any other info or id string.
    * @object Value of the variable.
    */
-  public <T> void snap(String name, T object) {
-    if (stackFrames.isEmpty()) {
+  public final <T> void snap(String name, T object) {
+    SnapshotStore snapshots = currentSnapshots();
+    if (snapshots != null) {
+      snapshots.add(name, object);
+      snapshotsChanged();
+    }
+  }
+
+  /**
+   * Convenience method to add one snapshot to current stack trace frame,
+   * value is provided by supplier only when the exception is rendered.
+   * @param name Name of variable, or any other info or id string.
+   * @param supplier Supplier of the value.
+   */
+  public final void snap(String name, Supplier<?> supplier) {
+    SnapshotStore snapshots = currentSnapshots();
+    if (snapshots != null) {
+      snapshots.addSupplied(name, supplier);
+      snapshotsChanged();
+    }
+  }
+
+  /**
+   * Convenience method to add one snapshot to current stack trace frame,
+   * object is converted to string right away, limited by CapturePolicy.getMaxSnapshotLength().
+   * @param name Name of variable, or any other info or id string.
+   * @param object Value of the variable.
+   */
+  public final <T> void snapNow(String name, T object) {
+    SnapshotStore snapshots = currentSnapshots();
+    if (snapshots != null) {
+      snapshots.add(name, SnapshotFormat.toString(object, false,
+          SnapshotFormat.maxSnapshotLength()));
+      snapshotsChanged();
+    }
+  }
+
+  /**
+   * Convenience method to add one line of debug info.
+   */
+  public final void snap(String name, int value) {
+    snapPrimitive(name, SnapshotStore.TYPE_INT, value);
+  }
+
+  /**
+  * Convenience method to add one line of debug info.
+  */
+  public final void snap(String name, long value) {
+    snapPrimitive(name, SnapshotStore.TYPE_LONG, value);
+  }
+
+  /**
+   * Convenience method to add one line of debug info.
+   */
+  public final void snap(String name, boolean value) {
+    snapPrimitive(name, SnapshotStore.TYPE_BOOLEAN, value ? 1 : 0);
+  }
+
+  /**
+   * Convenience method to add one line of debug info.
+   */
+  public final void snap(String name, double value) {
+    snapPrimitive(name, SnapshotStore.TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Convenience method to add one line of debug info.
+   */
+  public final void snap(String name, float value) {
+    snapPrimitive(name, SnapshotStore.TYPE_FLOAT, Float.floatToRawIntBits(value));
+  }
+
+  /**
+   * Convenience method to add one line of debug info.
+   */
+  public final void snap(String name, char value) {
+    snapPrimitive(name, SnapshotStore.TYPE_CHAR, value);
+  }
+
+  /**
+   * Convenience method to add one line of debug info.
+   */
+  public final void snap(String name, short value) {
+    snapPrimitive(name, SnapshotStore.TYPE_SHORT, value);
+  }
+
+  /**
+   * Convenience method to add one line of debug info.
+   */
+  public final void snap(String name, byte value) {
+    snapPrimitive(name, SnapshotStore.TYPE_BYTE, value);
+  }
+
+  private void snapPrimitive(String name, byte type, long bits) {
+    SnapshotStore snapshots = currentSnapshots();
+    if (snapshots != null) {
+      snapshots.addPrimitive(name, type, bits);
+      snapshotsChanged();
+    }
+  }
+
+  /**
+   * Reset rendering kept by toString(), called after snapshot is added.
+   */
+  void snapshotsChanged() {
+    rendered = null;
+  }
+
+  /**
+   * Get snapshots of current stack trace frame.
+   * @return snapshots of the frame, or null if there are no frames at all
+   *     or the frame has max number of snapshots, see CapturePolicy.
+   */
+  private SnapshotStore currentSnapshots() {
+    if (hasNoFrames()) {
       //-- unlikely but possible, we will loose any snapshots collected
       // TODO add somewhere else
-      return;
+      return null;
     }
 
-    String value = null;
-    if (object != null) {
-      value = object.toString();
+    return frameSnapshots(findSnapshots(resolveFrame(null, null)));
+  }
+
+  /**
+   * Get snapshots of the frame of woven call site, see CallSites.
+   * @param siteClass class name of the call site.
+   * @param siteMethod method name of the call site.
+   * @return snapshots of the frame, or null, see currentSnapshots().
+   */
+  SnapshotStore siteSnapshots(String siteClass, String siteMethod) {
+    if (hasNoFrames()) {
+      //-- unlikely but possible, we will loose any snapshots collected
+      return null;
     }
+    return frameSnapshots(findSnapshots(resolveFrame(siteClass, siteMethod)));
+  }
 
-    Snapshot snapshot = new Snapshot(name, value);
-    TraceNumber frameNumber = TraceNumber.determineCurrentFrame(this.className);
+  /**
+   * Get snapshots of the frame to add a snapshot to.
+   * @param snapshots snapshots of the frame, see findSnapshots().
+   * @return snapshots, or null if the frame has max number of snapshots.
+   */
+  private SnapshotStore frameSnapshots(SnapshotStore snapshots) {
+    if (snapshots.isFull(CapturePolicies.getPolicy().getMaxSnapshotsPerFrame())) {
+      return null;
+    }
 
-    if (frameNumber.isUndefined()) {
-      // unlikely but possible, add snapshots to the first (the most recent) frame
-      // as the oldest frame most likely will be cut off
-      stackFrames.get(0).addSnapshot(snapshot);
-      return;
+    if (RunawayMetrics.isEnabled()) {
+      RunawayMetrics.snapped(1);
+    }
+    return snapshots;
+  }
+
+  /**
+   * Determine frame number, timed if metrics are enabled, see frameNumber().
+   */
+  private TraceNumber resolveFrame(String siteClass, String siteMethod) {
+    if (!RunawayMetrics.isEnabled()) {
+      return frameNumber(siteClass, siteMethod);
     }
+    long start = System.nanoTime();
+    TraceNumber frameNumber = frameNumber(siteClass, siteMethod);
+    RunawayMetrics.frameResolved(System.nanoTime() - start);
+    return frameNumber;
+  }
 
-    // searching list by frame number, sequential is Ok for small lists.
-    boolean found = false;
-    for (TraceFrame frame: stackFrames) {
-      if (frame.getTraceNumber().equals(frameNumber)) {
-        frame.addSnapshot(snapshot);
-        found = true;
-        break;
+  /**
+   * Determine frame number of the caller of snap() or at() by stack walk,
+   * or of woven call site by its class and method, see CallSites.
+   * Call site is found by table lookup, unless several frames have its method
+   * (recursive method): then the caller is the frame at the same depth as in the current stack,
+   * if this exception has the complete stack of the current thread.
+   * @param siteClass class name of the call site, or null for the caller of snap() or at().
+   * @param siteMethod method name of the call site.
+   * @return frame number, could be undefined.
+   */
+  private TraceNumber frameNumber(String siteClass, String siteMethod) {
+    if (siteClass == null) {
+      return TraceNumber.determineCurrentFrame(this.className, stackElements);
+    }
+
+    int index = siteIndex(siteClass, siteMethod);
+    if (index >= 0) {
+      return new TraceNumber(stackElements.length - 1 - index);
+    }
+
+    if (index == SITE_AMBIGUOUS && completeStack
+        && threadId == Thread.currentThread().getId()) {
+      TraceNumber frameNumber = TraceNumber.determineCurrentFrame(CallSites.CLASS_NAME);
+      int frameIndex = stackElements.length - 1 - frameNumber.getValue();
+      if (!frameNumber.isUndefined() && frameIndex >= topFrame
+          && frameIndex < stackElements.length
+          && isSite(stackElements[frameIndex], siteClass, siteMethod)) {
+        return frameNumber;
       }
     }
 
-    if (!found) {
-      // unlikely but possible, add snapshots to the first (the most recent) frame
+    // e.g. call site method is not in stack trace, or stack trace is of another thread
+    return TraceNumber.determineCurrentFrame(CallSites.CLASS_NAME, stackElements);
+  }
+
+  /**
+   * Find frame of call site, see siteTable.
+   * @return frame index, SITE_NOT_FOUND or SITE_AMBIGUOUS.
+   */
+  private int siteIndex(String siteClass, String siteMethod) {
+    int[] table = siteTable;
+    if (table == null) {
+      table = createSiteTable();
+      siteTable = table;
+    }
+
+    int mask = table.length - 1;
+    for (int slot = siteHash(siteClass, siteMethod) & mask; ; slot = (slot + 1) & mask) {
+      int entry = table[slot];
+      if (entry == 0) {
+        return SITE_NOT_FOUND;
+      }
+      int index = Math.abs(entry) - 1;
+      if (isSite(stackElements[index], siteClass, siteMethod)) {
+        return (entry > 0) ? index : SITE_AMBIGUOUS;
+      }
+    }
+  }
+
+  private int[] createSiteTable() {
+    // at most half full, so probe sequences are short
+    int frames = Math.max(stackElements.length - topFrame, 1);
+    int[] table = new int[Integer.highestOneBit(frames) * 4];
+    int mask = table.length - 1;
+
+    for (int index = topFrame; index < stackElements.length; index++) {
+      String siteClass = stackElements[index].getClassName();
+      String siteMethod = stackElements[index].getMethodName();
+      int slot = siteHash(siteClass, siteMethod) & mask;
+      while (table[slot] != 0
+          && !isSite(stackElements[Math.abs(table[slot]) - 1], siteClass, siteMethod)) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = (table[slot] == 0) ? index + 1 : -Math.abs(table[slot]);
+    }
+    return table;
+  }
+
+  private static int siteHash(String siteClass, String siteMethod) {
+    int hash = 31 * siteClass.hashCode() + siteMethod.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean isSite(StackTraceElement element, String siteClass, String siteMethod) {
+    return element.getMethodName().equals(siteMethod)
+        && element.getClassName().equals(siteClass);
+  }
+
+  /**
+   * Start batch of snapshots for current stack trace frame, e.g.
+   * {@code re.at().snap("a", a).snap("b", b).commit()}.
+   * Current frame is determined only once for the whole batch.
+   * @return batch to collect snapshots, committed to this exception by commit().
+   */
+  public final SnapshotBatch at() {
+    return new SnapshotBatch(this, resolveFrame(null, null));
+  }
+
+  /**
+   * Start batch of snapshots for the frame of woven call site, see CallSites.
+   * @param siteClass class name of the call site.
+   * @param siteMethod method name of the call site.
+   * @return batch to collect snapshots.
+   */
+  SnapshotBatch at(String siteClass, String siteMethod) {
+    return new SnapshotBatch(this, resolveFrame(siteClass, siteMethod));
+  }
+
+  /**
+   * Add snapshots of a batch to the frame with specified number.
+   * @param frameNumber frame number, could be undefined.
+   * @param snapshots snapshots to add.
+   */
+  void addSnapshots(TraceNumber frameNumber, SnapshotStore snapshots) {
+    if (hasNoFrames()) {
+      //-- unlikely but possible, we will loose any snapshots collected
+      return;
+    }
+
+    findSnapshots(frameNumber).addAll(snapshots,
+        CapturePolicies.getPolicy().getMaxSnapshotsPerFrame());
+    snapshotsChanged();
+    if (RunawayMetrics.isEnabled()) {
+      RunawayMetrics.snapped(snapshots.size());
+    }
+  }
+
+  /**
+   * Find snapshots of stack frame by frame number, see findFrame().
+   * @param frameNumber frame number, could be undefined.
+   * @return snapshots of matching frame, or snapshots of frames not captured.
+   */
+  private SnapshotStore findSnapshots(TraceNumber frameNumber) {
+    TraceFrame frame = findFrame(frameNumber);
+    return (frame != null) ? frame.getSnapshotStore() : uncapturedSnapshots();
+  }
+
+  /**
+   * Find stack frame by frame number, creating it if it has no snapshots yet.
+   * Frame numbers are in reverse order, so frame index is calculated, not searched.
+   * @param frameNumber frame number, could be undefined.
+   * @return matching frame or the first (the most recent) frame if not found,
+   *     or null if not found in stack trace truncated by capture depth.
+   */
+  private TraceFrame findFrame(TraceNumber frameNumber) {
+    int index = topFrame;
+
+    if (!frameNumber.isUndefined()) {
+      int frameIndex = stackElements.length - 1 - frameNumber.getValue();
+      if (frameIndex >= topFrame && frameIndex < stackElements.length) {
+        index = frameIndex;
+      }
+      // otherwise unlikely but possible, add snapshots to the first (the most recent) frame
       // as the oldest frame most likely will be cut off
-      stackFrames.get(0).addSnapshot(snapshot);
+    } else if (truncatedStack) {
+      // the frame is most likely below the captured ones, it is not the most recent one
+      return null;
     }
 
+    TraceFrame[] frames = snappedFrames;
+    TraceFrame frame = (frames == null) ? null : frames[index];
+    return (frame != null) ? frame : createFrame(index);
   }
 
   /**
-   * Convenience method to add one line of debug info.
+   * Get snapshots of frames not captured, created if needed.
+   * @return snapshots.
    */
-  public void snap(String name, int value) {
-    snap(name, Integer.toString(value));
+  private synchronized SnapshotStore uncapturedSnapshots() {
+    SnapshotStore snapshots = uncapturedSnapshots;
+    if (snapshots == null) {
+      snapshots = new SnapshotStore();
+      uncapturedSnapshots = snapshots;
+    }
+    return snapshots;
   }
 
   /**
-  * Convenience method to add one line of debug info.
-  */
-  public void snap(String name, long value) {
-    snap(name, Long.toString(value));
+   * Create stack frame for the element with specified index and keep it,
+   * unless another thread has just created it.
+   * @param index index in stackElements
+   * @return frame to add snapshots to.
+   */
+  private synchronized TraceFrame createFrame(int index) {
+    TraceFrame[] frames = snappedFrames;
+    if (frames == null) {
+      frames = new TraceFrame[stackElements.length];
+      snappedFrames = frames;
+    }
+
+    TraceFrame frame = frames[index];
+    if (frame == null) {
+      frame = newFrame(index);
+      // TraceFrame has final fields only, so it is safe to read by frames[index] with no lock
+      frames[index] = frame;
+    }
+    return frame;
   }
 
   /**
-   * Convenience method to add one line of debug info.
+   * Create stack frame for the element with specified index.
+   * @param index index in stackElements
+   * @return new frame with no snapshots.
    */
-  public void snap(String name, boolean value) {
-    snap(name, Boolean.toString(value));
+  private TraceFrame newFrame(int index) {
+    return new TraceFrame(new TraceNumber(stackElements.length - 1 - index), stackElements[index]);
+  }
+
+  /**
+   * Get stack frame for the element with specified index.
+   * @param index index in stackElements
+   * @return frame with snapshots, or new frame with no snapshots which is not kept.
+   */
+  private TraceFrame frameAt(int index) {
+    TraceFrame frame = getSnappedFrame(index);
+    return (frame == null) ? newFrame(index) : frame;
+  }
+
+  private boolean hasNoFrames() {
+    return topFrame >= stackElements.length;
   }
 
   /**
@@ -134,26 +566,42 @@ public class RunawayException extends RuntimeException implements Serializable {
    * @param message exception message.
    */
   public RunawayException(String message) {
-    super(message);
-
-    this.className = this.getClass().getName();
-    this.threadId = Thread.currentThread().getId();
-    // copy Java standard StackTraceElement[] into List<StackFrame>      
-    StackTraceElement[] originalStack = this.getStackTrace();
-    setStackFrames(originalStack);
-    originalStack = null;
+    this(message, ThrowSampling.sample());
   }
 
   /**
    * Constructor, no message.
    */
   public RunawayException() {
+    this(null, ThrowSampling.sample());
+  }
+
+  /**
+   * Constructor with message and stack trace of hot throw site.
+   * @param message exception message.
+   * @param exemplar stack trace to share instead of capturing stack trace, see ThrowSampling,
+   *     or null to capture stack trace as usual.
+   */
+  private RunawayException(String message, StackTraceElement[] exemplar) {
+    super(message);
+
     this.className = this.getClass().getName();
-    threadId = Thread.currentThread().getId();
-    // copy Java standard StackTraceElement[] into List<StackFrame>
-    StackTraceElement[] originalStack = this.getStackTrace();
-    setStackFrames(originalStack);
-    originalStack = null;
+    this.threadId = Thread.currentThread().getId();
+    this.breadcrumbs = Breadcrumbs.capture();
+    this.submissionSite = SubmissionSite.current();
+
+    if (exemplar != null) {
+      sampled = true;
+      setStackFrames(exemplar);
+      this.setStackTrace(exemplar);
+    } else {
+      setStackFrames(captureStack());
+      ThrowSampling.offerExemplar(stackElements);
+    }
+
+    if (RunawayMetrics.isEnabled()) {
+      RunawayMetrics.created(this);
+    }
   }
 
   /**
@@ -166,6 +614,13 @@ public class RunawayException extends RuntimeException implements Serializable {
   public RunawayException(Throwable throwable) {
     this.className = this.getClass().getName();
     this.threadId = Thread.currentThread().getId();
+    this.breadcrumbs = Breadcrumbs.capture();
+    this.submissionSite = SubmissionSite.current();
+
+    // stack trace of Throwable is not filled in, capture it the same way, see fillInStackTrace()
+    if (captureDepth > 0) {
+      this.setStackTrace(StackResolver.capture(captureDepth));
+    }
 
     // assert exception: we should not be here
     if (throwable == null) {
@@ -178,48 +633,124 @@ public class RunawayException extends RuntimeException implements Serializable {
     this.causeExceptionName = throwable.getClass().getName();
     this.causeExceptionMessage = throwable.getMessage();
 
-    // copy original cause complete stack trace into our custom stackFrames
-    StackTraceElement[] originalStack = throwable.getStackTrace();
-    setStackFrames(originalStack);
+    // keep original cause stack trace as our stack frames, up to capture depth
+    CapturePolicy policy = CapturePolicies.getPolicy();
+    StackTraceElement[] stack = limitDepth(throwable.getStackTrace(), policy.getCaptureDepth());
+    if (policy.isInterningFrames()) {
+      FrameInterner.internAll(stack);
+    }
+    setStackFrames(stack);
+
+    if (RunawayMetrics.isEnabled()) {
+      RunawayMetrics.created(this);
+    }
   }
 
   /**
    * Constructor of RunawayException from another RunawayException of another thread
    * and having different stack trace that we also want to keep.
+   * Another exception is kept as cause and rendered only when this one is rendered,
+   * so hops through several threads do not render the whole chain on each hop.
    * @param different instance of this exception.
    */
 
   private RunawayException(RunawayException another) {
-    // Throwable has no setMessage() :o(
-    // set this message as serialized bug from another thread
-    super("[Cause bug: " + another.toString() + "]");
+    super(null, another);
 
     this.className = this.getClass().getName();
     this.threadId = Thread.currentThread().getId();
+    this.breadcrumbs = Breadcrumbs.capture();
+    this.submissionSite = SubmissionSite.current();
 
-    // get all info from another RunawayException including stack trace
-    // as this exception message
+    // get original cause info from another RunawayException,
+    // its stack trace is rendered as cause bug
     causeExceptionName = another.causeExceptionName;
     causeExceptionMessage = another.causeExceptionMessage;
 
-    // copy Java standard StackTraceElement[] into List<StackFrame>,
-    // skip the last element
-    StackTraceElement[] originalStack = this.getStackTrace();
-    setStackFrames(originalStack);
-    originalStack = null;
+    // use Java standard StackTraceElement[] as stack frames,
+    // skip the most recent elements of this class
+    setStackFrames(captureStack());
+    // the same error as the one of another thread
+    fingerprint = another.fingerprint;
 
-    TraceNumber appTraceNumber = TraceNumber.determineCurrentFrame(this.className);
+    TraceNumber appTraceNumber = TraceNumber.determineCurrentFrame(this.className, stackElements);
 
     if (!appTraceNumber.isUndefined()) {
-      // unlikely but possible, add snapshots to the first (the most recent) frame
-      // as the oldest frame most likely will be cut off
-      while (!stackFrames.isEmpty()) {
-        if (stackFrames.get(0).getTraceNumber().equals(appTraceNumber)) {
-          break;
-        }
-        stackFrames.remove(0);
-      } //-- while
+      // cut off frames above the application frame,
+      // or all of them if it is not found
+      int appIndex = stackElements.length - 1 - appTraceNumber.getValue();
+      topFrame = (appIndex >= 0) ? appIndex : stackElements.length;
     } //-- if
+
+    if (RunawayMetrics.isEnabled()) {
+      RunawayMetrics.created(this);
+    }
+  }
+
+  /**
+   * Fill in stack trace, unless it is called by Throwable constructor (before RunawayException
+   * fields are set) and the runtime supports capturing limited depth (Java 9+), while
+   * capture policy limits capture depth or throw sampling is enabled: then every constructor
+   * captures the stack trace itself, see captureStack(), or takes exemplar of sampled exception.
+   * Explicit calls fill in the complete stack trace as usual.
+   */
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    if (className == null && StackResolver.capturesLimitedDepth()) {
+      int depth = CapturePolicies.getPolicy().getCaptureDepth();
+      if (depth > 0) {
+        captureDepth = depth;
+        return this;
+      }
+      if (ThrowSampling.getThreshold() > 0) {
+        captureDepth = Integer.MAX_VALUE;
+        return this;
+      }
+    }
+    return super.fillInStackTrace();
+  }
+
+  /**
+   * Capture stack trace of this exception up to capture depth, it also becomes
+   * the stack trace of Throwable, so printStackTrace() shows the same frames.
+   * Frames are interned if capture policy says so, see FrameInterner.
+   * @return stack trace, [0] is the most recent frame.
+   */
+
+  private StackTraceElement[] captureStack() {
+    CapturePolicy policy = CapturePolicies.getPolicy();
+    StackTraceElement[] stack;
+    if (captureDepth > 0) {
+      stack = StackResolver.capture(captureDepth);
+      completeStack = stack.length < captureDepth;
+    } else {
+      // filled in stack trace, truncated if capture depth is limited on Java 8
+      stack = this.getStackTrace();
+      int depth = policy.getCaptureDepth();
+      completeStack = depth <= 0 || stack.length <= depth;
+      if (completeStack && !policy.isInterningFrames()) {
+        return stack;
+      }
+      stack = limitDepth(stack, depth);
+    }
+
+    if (policy.isInterningFrames()) {
+      FrameInterner.internAll(stack);
+    }
+    this.setStackTrace(stack);
+    return stack;
+  }
+
+  /**
+   * Keep the most recent frames of stack trace.
+   * @param stack stack trace, [0] is the most recent frame.
+   * @param depth max number of frames, 0 or less for all.
+   * @return the same stack trace, or truncated copy of it.
+   */
+
+  private static StackTraceElement[] limitDepth(StackTraceElement[] stack, int depth) {
+    return (depth <= 0 || stack.length <= depth) ? stack : Arrays.copyOf(stack, depth);
   }
 
   /**
@@ -243,18 +774,28 @@ public class RunawayException extends RuntimeException implements Serializable {
       long currentThreadId = Thread.currentThread().getId();
       RunawayException sourceBug = (RunawayException) throwable;
       if (currentThreadId == sourceBug.threadId) {
+        if (RunawayMetrics.isEnabled()) {
+          RunawayMetrics.converted(RunawayMetrics.Conversion.REUSED);
+        }
         return sourceBug;
       }
+      if (RunawayMetrics.isEnabled()) {
+        RunawayMetrics.converted(RunawayMetrics.Conversion.CROSS_THREAD);
+      }
       return new RunawayException(sourceBug);
     }
 
     // have some other exception
+    if (RunawayMetrics.isEnabled()) {
+      RunawayMetrics.converted(RunawayMetrics.Conversion.WRAPPED);
+    }
     return new RunawayException(throwable);
   }
 
   /**
-   * Copy Java standard StackTraceElement[] into List of StackFrames.
-   * @param sourceStack  Java standard original StackTraceElement[].
+   * Use Java standard StackTraceElement[] as stack frames.
+   * The array is not copied, TraceFrame objects are created only for frames with snapshots.
+   * @param sourceStack  Java standard original StackTraceElement[], not modified afterwards.
    */
 
   private void setStackFrames(StackTraceElement[] sourceStack) {
@@ -263,144 +804,544 @@ public class RunawayException extends RuntimeException implements Serializable {
       throw new IllegalArgumentException("sourceStack is null");
     }
 
-    int stackLength = sourceStack.length;
-    if (stackLength == 0) {
-      stackFrames = Collections.emptyList();
-      return;
+    stackElements = sourceStack;
+    topFrame = 0;
+    snappedFrames = null;
+    int depth = CapturePolicies.getPolicy().getCaptureDepth();
+    truncatedStack = depth > 0 && sourceStack.length >= depth;
+    fingerprint = fingerprint((causeExceptionName != null) ? causeExceptionName : className,
+        sourceStack);
+  }
+
+  /**
+   * Calculate fingerprint of error, based on String.hashCode() only,
+   * so it is the same in any JVM.
+   * @param errorClassName class name of original exception.
+   * @param stack stack trace of original exception.
+   * @return fingerprint.
+   */
+
+  private static long fingerprint(String errorClassName, StackTraceElement[] stack) {
+    long hash = mix(0, errorClassName.hashCode());
+    int depth = Math.min(stack.length, FINGERPRINT_DEPTH);
+    for (int index = 0; index < depth; index++) {
+      StackTraceElement element = stack[index];
+      hash = mix(hash, element.getClassName().hashCode());
+      hash = mix(hash, element.getMethodName().hashCode());
+      hash = mix(hash, element.getLineNumber());
     }
+    return hash;
+  }
+
+  private static long mix(long hash, int value) {
+    long mixed = (hash + value) * 0x9E3779B97F4A7C15L;
+    return mixed ^ (mixed >>> 32);
+  }
 
-    stackFrames = new ArrayList<>(stackLength);
-    int stackFrameNumber = stackLength;
+  /**
+   * Serialize stack frames and snapshots in compact format, see FrameCodec.
+   * @param out destination stream.
+   * @throws IOException if stream fails.
+   */
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    // the same error guid on both sides
+    getErrorGuid();
+    out.defaultWriteObject();
+    boolean ownStack = Arrays.equals(stackElements, this.getStackTrace());
+    FrameCodec.write(out, stackElements, ownStack, topFrame, snappedFrames);
+  }
 
-    for (StackTraceElement traceElement: sourceStack) {
-      TraceNumber frameNumber = new TraceNumber(--stackFrameNumber);
-      TraceFrame frame = new TraceFrame(frameNumber, traceElement);
-      stackFrames.add(frame);
+  /**
+   * Write stack frames and snapshots in FrameCodec format, see ErrorJournal.
+   * @param out destination.
+   * @throws IOException if destination fails.
+   */
+
+  void encodeFrames(DataOutput out) throws IOException {
+    FrameCodec.write(out, stackElements, false, topFrame, snappedFrames);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    // Throwable is already deserialized, so its own stack trace is available
+    StackTraceElement[] ownStack = this.getStackTrace();
+    FrameCodec frames = FrameCodec.read(in, ownStack);
+    if (frames.elements == ownStack && ownStack.length > 0
+        && CapturePolicies.getPolicy().isInterningFrames()) {
+      // own stack is a copy, it replaces stack trace of Throwable to share the same frames
+      FrameInterner.internAll(ownStack);
+      this.setStackTrace(ownStack);
     }
+    stackElements = frames.elements;
+    topFrame = frames.topFrame;
+    snappedFrames = frames.snappedFrames;
   }
 
   /**
    * Overridden getMessage() to provide more info (except stack trace).
+   * Message is rendered only once.
    */
   @Override
   public String getMessage() {
-    StringBuilder builder;
+    String message = renderedMessage;
+    if (message != null) {
+      return message;
+    }
 
-    try {
-      builder = new StringBuilder(BUFFER_SIZE);
-      builder.append("-:[").append(getTechSupportCode()).append("]:- ");
-      builder.append("Thread id: ").append(threadId).append(". ");
+    StringBuilder builder = RenderBuffer.acquire();
 
-      if (super.getMessage() != null) {
-        builder.append(super.getMessage()).append(". ");
-      }
+    try {
+      writeMessage(builder);
+      message = builder.toString();
+      renderedMessage = message;
+      return message;
+    } catch (IOException | RuntimeException e) { /* should not be here */
+      return "Failed to stringify message. Msg: " + e.toString();
+    } finally {
+      RenderBuffer.release(builder);
+    }
+  }
 
-      if (causeExceptionName != null) {
-        builder.append("Cause: ").append(causeExceptionName).append(". Msg: ");
-        builder.append(causeExceptionMessage).append(". ");
-      }
+  /**
+   * Overridden initCause() to render the cause like the one of constructors:
+   * cause bug of RunawayException, or class name and message of another throwable.
+   * Message and rendering kept by getMessage() and toString() are reset.
+   */
 
-      return builder.toString();
-    } catch (RuntimeException e) { /* should not be here */
-      return "Failed to stringify message. Msg: " + e.toString();
+  @Override
+  public synchronized Throwable initCause(Throwable cause) {
+    super.initCause(cause);
+    if (cause != null && !(cause instanceof RunawayException) && causeExceptionName == null) {
+      causeExceptionName = cause.getClass().getName();
+      causeExceptionMessage = cause.getMessage();
     }
+    renderedMessage = null;
+    snapshotsChanged();
+    return this;
   }
 
   /**
    * Provides complete debug info - class name, message and stack frames.
+   * Result is kept until the next snapshot is added, so object snapshots
+   * are converted to strings once for repeated logging of the same exception.
    */
 
   @Override
   public String toString() {
-    StringBuilder builder;
+    Object kept = rendered;
+    if (kept instanceof String) {
+      return (String) kept;
+    }
+
+    // snapshot added by another thread while rendering could be missed,
+    // it resets the mark, so such rendering is not kept
+    Object mark = new Object();
+    boolean keep = kept == null && RENDERED.compareAndSet(this, null, mark);
+    StringBuilder builder = RenderBuffer.acquire();
+    boolean timed = RunawayMetrics.isEnabled();
+    long start = timed ? System.nanoTime() : 0;
 
     try {
-      builder = new StringBuilder(BUFFER_SIZE);
-
-      // because of inheritance, use the class of instance
-      builder.append(this.getClass().getName()).append(": ").append(getMessage()).append("\n");
-      // StackTrace can NOT be null but might be empty.
-      builder.append(framesToString());
-      return builder.toString();
-    } catch (RuntimeException e) { /* should not be here */
+      writeTo(builder);
+      String result = builder.toString();
+      if (keep) {
+        RENDERED.compareAndSet(this, mark, result);
+      }
+      if (timed) {
+        RunawayMetrics.rendered(result.length(), System.nanoTime() - start);
+      }
+      return result;
+    } catch (IOException | RuntimeException e) { /* should not be here */
+      RENDERED.compareAndSet(this, mark, null);
       return "failed to stringify exception. Msg: " + e.toString();
+    } finally {
+      RenderBuffer.release(builder);
     }
   }
 
   /**
-   * Convert stack trace frames to String.
-   * @return string
+   * Write complete debug info - class name, message and stack frames -
+   * right to the destination, e.g. Writer or StringBuilder, with no intermediate strings.
+   * @param out destination, e.g. Writer or StringBuilder.
+   * @throws IOException if destination fails.
    */
-  private String framesToString() {
-    List<TraceFrame> printStackFrames;
-    StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
 
+  public void writeTo(Appendable out) throws IOException {
+    Object kept = rendered;
+    if (kept instanceof String) {
+      out.append((String) kept);
+      return;
+    }
+
+    // because of inheritance, use the class of instance
+    out.append(this.getClass().getName()).append(": ");
+    writeMessage(out);
+    out.append('\n');
+    writeBreadcrumbs(out);
+    writeSubmissionSite(out);
     // StackTrace can NOT be null but might be empty.
-    int traceLength = stackFrames.size();
-    if (traceLength == 0) {
-      return "";
+    writeFrames(out, stackElements.length);
+    writeUncaptured(out);
+    writeCauseBugs(out);
+  }
+
+  /**
+   * Write chain of cause bugs - RunawayExceptions of other threads, see of(Throwable).
+   * Frames shared with the enclosing exception (usually thread pool frames at the bottom)
+   * are not repeated, like "... N more" of printStackTrace().
+   * @param out destination.
+   */
+  private void writeCauseBugs(Appendable out) throws IOException {
+    RunawayException enclosing = this;
+    Throwable cause = getCause();
+
+    while (cause instanceof RunawayException && cause != enclosing) {
+      RunawayException bug = (RunawayException) cause;
+      int framesInCommon = bug.framesInCommon(enclosing);
+
+      out.append("Cause bug: ").append(bug.getClass().getName()).append(": ");
+      bug.writeMessage(out);
+      out.append('\n');
+      bug.writeBreadcrumbs(out);
+      bug.writeSubmissionSite(out);
+      bug.writeFrames(out, bug.stackElements.length - framesInCommon);
+      bug.writeUncaptured(out);
+      if (framesInCommon > 0) {
+        out.append("... ");
+        RenderBuffer.appendNumber(out, framesInCommon);
+        out.append(" more\n");
+      }
+
+      enclosing = bug;
+      cause = bug.getCause();
     }
+  }
 
-    int printLimit = (traceLength < MAX_STACK_TRACE_SIZE) ? traceLength : MAX_STACK_TRACE_SIZE;
-    printStackFrames = stackFrames.subList(0, printLimit);
+  /**
+   * Count the oldest frames of this exception which are the same as the oldest frames
+   * of enclosing exception, frames with snapshots are never in common.
+   * @param enclosing exception having this one as cause.
+   * @return number of frames in common.
+   */
+  private int framesInCommon(RunawayException enclosing) {
+    int index = stackElements.length - 1;
+    int enclosingIndex = enclosing.stackElements.length - 1;
+    while (index >= topFrame && enclosingIndex >= enclosing.topFrame
+        && stackElements[index].equals(enclosing.stackElements[enclosingIndex])
+        && (getSnappedFrame(index) == null
+            || getSnappedFrame(index).getSnapshotStore().isEmpty())) {
+      --index;
+      --enclosingIndex;
+    }
+    return stackElements.length - 1 - index;
+  }
+
+  /**
+   * Write message - tech support code, thread id, message and cause.
+   * @param out destination.
+   */
+  private void writeMessage(Appendable out) throws IOException {
+    out.append("-:[");
+    RenderBuffer.appendNumber(out, getTechSupportCode());
+    out.append("]:- ");
+    out.append("Thread id: ");
+    RenderBuffer.appendNumber(out, threadId);
+    out.append(". ");
+
+    String message = super.getMessage();
+    if (message != null) {
+      out.append(message).append(". ");
+    }
+
+    if (sampled) {
+      out.append("Sampled: stack trace of earlier exception at this throw site. ");
+    }
+
+    Throwable cause = getCause();
+    if (cause instanceof RunawayException) {
+      out.append("Cause bug of thread ");
+      RenderBuffer.appendNumber(out, ((RunawayException) cause).threadId);
+      out.append(". ");
+    }
 
-    for (TraceFrame frame: printStackFrames) {
+    if (causeExceptionName != null) {
+      out.append("Cause: ").append(causeExceptionName).append(". Msg: ");
+      out.append(String.valueOf(causeExceptionMessage)).append(". ");
+    }
+  }
+
+  /**
+   * Write stack trace frames.
+   * @param out destination.
+   * @param endIndex index of stackElements after the last frame to write.
+   */
+  private void writeFrames(Appendable out, int endIndex) throws IOException {
+    writeFrames(out, stackElements, topFrame, endIndex, snappedFrames);
+  }
+
+  /**
+   * Write stack trace frames, see also ErrorJournal.
+   * @param out destination.
+   * @param stackElements stack trace elements.
+   * @param topFrame index of the first frame to write.
+   * @param endIndex index after the last frame to write.
+   * @param snappedFrames frames with snapshots, same indexes as elements, could be null.
+   */
+  static void writeFrames(Appendable out, StackTraceElement[] stackElements, int topFrame,
+      int endIndex, TraceFrame[] snappedFrames) throws IOException {
+    // StackTrace can NOT be null but might be empty.
+    int traceLength = endIndex - topFrame;
+    if (traceLength <= 0) {
+      return;
+    }
+
+    CapturePolicy policy = CapturePolicies.getPolicy();
+    int renderDepth = policy.getRenderDepth();
+    int printLimit = (renderDepth <= 0 || traceLength < renderDepth) ? traceLength : renderDepth;
+    int maxLength = SnapshotFormat.limit(policy.getMaxSnapshotLength());
+    int budget = SnapshotFormat.limit(policy.getSnapshotBudget());
+
+    for (int index = topFrame; index < topFrame + printLimit; index++) {
       //-- reverse stack frame index
-      buffer.append("->> ");
-      buffer.append(frame.getTraceNumber().getValue());
-      buffer.append(":");
+      out.append("->> ");
+      RenderBuffer.appendNumber(out, stackElements.length - 1 - index);
+      out.append(':');
 
       // --- customize if needed
-      StackTraceElement trace = frame.getStackTraceElement();
-      buffer.append(trace.getClassName());
-      buffer.append(".");
-      buffer.append(trace.getMethodName());
-      buffer.append("[");
-      buffer.append(trace.getLineNumber());
-      buffer.append("]");
-
-      //-- snapshots could be empty but never null
-      List<Snapshot> snapshots = frame.getSnapshots();
-
-      if (!snapshots.isEmpty()) {
-        buffer.append(": ");
-        for (Snapshot snapshot: snapshots) {
-          buffer.append("[");
-          buffer.append(snapshot.getName());
-          buffer.append("=");
-          buffer.append(snapshot.getValue());
-          buffer.append("]");
-        }
+      StackTraceElement trace = stackElements[index];
+      out.append(trace.getClassName());
+      out.append('.');
+      out.append(trace.getMethodName());
+      out.append('[');
+      RenderBuffer.appendNumber(out, trace.getLineNumber());
+      out.append(']');
+
+      //-- only frames with snapshots are kept
+      TraceFrame frame = (snappedFrames == null) ? null : snappedFrames[index];
+
+      if (frame != null && !frame.getSnapshotStore().isEmpty()) {
+        out.append(": ");
+        budget = writeSnapshots(out, frame.getSnapshotStore(), maxLength, budget);
       }
 
-      buffer.append("\n");
+      out.append('\n');
+    }
+  }
+
+  /**
+   * Write breadcrumbs line, if any, see Breadcrumbs and ErrorJournal.
+   * @param out destination.
+   */
+  void writeBreadcrumbs(Appendable out) throws IOException {
+    if (breadcrumbs == null || breadcrumbs.isEmpty()) {
+      return;
+    }
+    CapturePolicy policy = CapturePolicies.getPolicy();
+    out.append("Breadcrumbs: ");
+    writeSnapshots(out, breadcrumbs, SnapshotFormat.limit(policy.getMaxSnapshotLength()),
+        SnapshotFormat.limit(policy.getSnapshotBudget()));
+    out.append('\n');
+  }
+
+  /**
+   * Write snapshots of frames not captured, if any, see uncapturedSnapshots and ErrorJournal.
+   * @param out destination.
+   */
+  void writeUncaptured(Appendable out) throws IOException {
+    SnapshotStore snapshots = uncapturedSnapshots;
+    if (snapshots == null || snapshots.isEmpty()) {
+      return;
     }
+    CapturePolicy policy = CapturePolicies.getPolicy();
+    out.append("Frames not captured: ");
+    writeSnapshots(out, snapshots, SnapshotFormat.limit(policy.getMaxSnapshotLength()),
+        SnapshotFormat.limit(policy.getSnapshotBudget()));
+    out.append('\n');
+  }
 
-    return buffer.toString();
+  /**
+   * Write submission site lines, if any, see SubmissionSite and ErrorJournal.
+   * @param out destination.
+   */
+  void writeSubmissionSite(Appendable out) throws IOException {
+    if (submissionSite != null) {
+      submissionSite.writeTo(out);
+    }
   }
 
+  /**
+   * Write snapshots as [name=value] pairs.
+   * @param maxLength max length of one object value.
+   * @param budget max length of all object values.
+   * @return the rest of the budget.
+   */
+  private static int writeSnapshots(Appendable out, SnapshotStore snapshots, int maxLength,
+      int budget) throws IOException {
+    SnapshotStore view = snapshots.view();
+    int count = view.size();
+    for (int snapshot = 0; snapshot < count; snapshot++) {
+      out.append('[');
+      out.append(view.getName(snapshot));
+      out.append('=');
+      budget -= view.appendValue(snapshot, out, Math.min(maxLength, budget));
+      out.append(']');
+    }
+    return budget;
+  }
 
   /**
-   * Return bug id (hashcode of UUID) used in getMessage() when error is logged
+   * Return bug id (see TechSupportCodes) used in getMessage() when error is logged
    * and this same code could be returned to front-end user as tech support code.
    * @return "Tech support code" which could be shown to end user
    */
 
   public int getTechSupportCode() {
-    int hashCode = errorGuid.hashCode();
-    if (hashCode == Integer.MIN_VALUE) {
-      hashCode = Integer.MAX_VALUE;
+    return techSupportCode;
+  }
+
+  /**
+   * Return globally unique id of this error, created on the first call.
+   * @return error guid, never null.
+   */
+
+  public UUID getErrorGuid() {
+    UUID guid = errorGuid;
+    if (guid == null) {
+      ERROR_GUID.compareAndSet(this, null, UUID.randomUUID());
+      guid = errorGuid;
     }
-    return Math.abs(hashCode);
+    return guid;
+  }
+
+  /**
+   * Get fingerprint of this error - hash of the original exception class name and
+   * its most recent stack frames (class, method, line), calculated when exception is created.
+   * Repeated errors of the same origin have the same fingerprint, see ErrorAggregator.
+   * @return fingerprint.
+   */
+
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Check if this exception has no stack trace of its own and shares stack trace
+   * of an earlier exception of the same throw site, see ThrowSampling.
+   * @return true if sampled.
+   */
+
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  /**
+   * Get id of the thread this exception was created in.
+   * @return thread id.
+   */
+
+  public long getThreadId() {
+    return threadId;
+  }
+
+  /**
+   * Get class name of the most recent stack frame - where the original exception was thrown.
+   * @return class name, or null if there are no frames.
+   */
+
+  public String getThrowingClassName() {
+    return hasNoFrames() ? null : stackElements[topFrame].getClassName();
+  }
+
+  /**
+   * Get message passed to constructor, without tech support code and cause.
+   * @return message, could be null.
+   */
+
+  String getRawMessage() {
+    return super.getMessage();
+  }
+
+  String getCauseExceptionName() {
+    return causeExceptionName;
+  }
+
+  String getCauseExceptionMessage() {
+    return causeExceptionMessage;
+  }
+
+  /**
+   * Get stack trace elements to encode frames without creating TraceFrame objects.
+   * @return elements, frames start at getTopFrame().
+   */
+
+  StackTraceElement[] getStackElements() {
+    return stackElements;
+  }
+
+  int getTopFrame() {
+    return topFrame;
+  }
+
+  /**
+   * Get snapshots taken in frames cut off by capture depth.
+   * @return snapshots, or null if there are none.
+   */
+  SnapshotStore getUncapturedSnapshots() {
+    return uncapturedSnapshots;
+  }
+
+  /**
+   * Get breadcrumbs copied by constructor.
+   * @return breadcrumbs, or null if there are none.
+   */
+
+  SnapshotStore getBreadcrumbs() {
+    return breadcrumbs;
+  }
+
+  /**
+   * Get submission site copied by constructor.
+   * @return submission site, or null if there is none.
+   */
+
+  SubmissionSite getSubmissionSite() {
+    return submissionSite;
+  }
+
+  /**
+   * Get frame with snapshots.
+   * @param index index in getStackElements().
+   * @return frame, or null if the frame has no snapshots.
+   */
+
+  TraceFrame getSnappedFrame(int index) {
+    TraceFrame[] frames = snappedFrames;
+    return (frames == null) ? null : frames[index];
   }
 
   /**
    * Get stack frames to allow subclasses override toString().
-   * @return stackFrames
+   * The list is read-only view over stack trace elements, frames without snapshots
+   * are created on each access.
+   * @return stackFrames, could be empty but not null.
    */
 
   public List<TraceFrame> getStackFrames() {
-    return stackFrames;
+    return new AbstractList<TraceFrame>() {
+      @Override
+      public TraceFrame get(int index) {
+        if (index < 0 || index >= size()) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return frameAt(topFrame + index);
+      }
+
+      @Override
+      public int size() {
+        return Math.max(stackElements.length - topFrame, 0);
+      }
+    };
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,315 @@
+package org.runaway.exception;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * RunawayExecutors wrap executors and CompletableFuture tasks, so RunawayException
+ * created by a task knows where the task was submitted, see SubmissionSite:
+ * <pre>
+ *   ExecutorService pool = RunawayExecutors.wrap(Executors.newFixedThreadPool(8));
+ *   pool.submit(() -&gt; check(order));
+ *   CompletableFuture.supplyAsync(() -&gt; load(id), pool).thenApplyAsync(this::check, pool);
+ *   RunawayExecutors.supplyAsync(() -&gt; load(id)); // common pool
+ *   scheduler.schedule(RunawayExecutors.wrapTask(() -&gt; retry(order)), 1, TimeUnit.SECONDS);
+ * </pre>
+ * Submit records the submitting thread and a few submitter frames by a limited stack walk,
+ * with no full stack capture, and the task runs with that submission site as current one
+ * of the worker thread. Async stages of CompletableFuture get the submission site only
+ * if they are given wrapped executor.
+ *
+ * <p>Calls of execute() and submit() of executors and of the methods of this class
+ * in woven classes pass their call site instead, so there is no stack walk, see CallSites.
+ */
+
+public final class RunawayExecutors {
+
+  private RunawayExecutors() {
+  }
+
+  /**
+   * Wrap executor, so its tasks have submission sites.
+   * @param executor executor to run tasks.
+   * @return wrapped executor, or the same one if it is already wrapped.
+   * @throws NullPointerException if executor is null.
+   */
+
+  public static Executor wrap(Executor executor) {
+    Objects.requireNonNull(executor, "executor is null");
+    if (executor instanceof SiteExecutor || executor instanceof SiteExecutorService) {
+      return executor;
+    }
+    return new SiteExecutor(executor);
+  }
+
+  /**
+   * Wrap executor service, so its tasks have submission sites.
+   * Tasks submitted by submit() and invokeAll() are run through execute() of the wrapped service.
+   * @param executor executor service to run tasks.
+   * @return wrapped executor service, or the same one if it is already wrapped.
+   * @throws NullPointerException if executor is null.
+   */
+
+  public static ExecutorService wrap(ExecutorService executor) {
+    Objects.requireNonNull(executor, "executor is null");
+    if (executor instanceof SiteExecutorService) {
+      return executor;
+    }
+    return new SiteExecutorService(executor);
+  }
+
+  /**
+   * Wrap task, so it runs with submission site of the current thread.
+   * @param task task to run.
+   * @return wrapped task.
+   * @throws NullPointerException if task is null, as Executor.execute() does.
+   */
+
+  public static Runnable wrapTask(Runnable task) {
+    checkTask(task);
+    return new SiteTask(SubmissionSite.capture(), task);
+  }
+
+  /**
+   * Same as CompletableFuture.supplyAsync(Supplier), supplier runs with submission site.
+   */
+
+  public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+    checkSupplier(supplier);
+    return CompletableFuture.supplyAsync(wrapSupplier(supplier, SubmissionSite.capture()));
+  }
+
+  /**
+   * Same as CompletableFuture.supplyAsync(Supplier, Executor), supplier runs with submission site.
+   */
+
+  public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+    checkSupplier(supplier);
+    return CompletableFuture.supplyAsync(wrapSupplier(supplier, SubmissionSite.capture()),
+        executor);
+  }
+
+  /**
+   * Same as CompletableFuture.runAsync(Runnable), task runs with submission site.
+   */
+
+  public static CompletableFuture<Void> runAsync(Runnable task) {
+    return CompletableFuture.runAsync(wrapTask(task));
+  }
+
+  /**
+   * Same as CompletableFuture.runAsync(Runnable, Executor), task runs with submission site.
+   */
+
+  public static CompletableFuture<Void> runAsync(Runnable task, Executor executor) {
+    return CompletableFuture.runAsync(wrapTask(task), executor);
+  }
+
+  /**
+   * Check task, wrappers throw NullPointerException as the wrapped executors do.
+   */
+
+  static void checkTask(Runnable task) {
+    Objects.requireNonNull(task, "task is null");
+  }
+
+  static void checkSupplier(Supplier<?> supplier) {
+    Objects.requireNonNull(supplier, "supplier is null");
+  }
+
+  /**
+   * Wrap task, so it runs with submission site.
+   */
+
+  static Runnable wrapTask(Runnable task, SubmissionSite site) {
+    return new SiteTask(site, task);
+  }
+
+  /**
+   * Wrap supplier, so it runs with submission site.
+   */
+
+  static <T> Supplier<T> wrapSupplier(Supplier<T> supplier, SubmissionSite site) {
+    return () -> {
+      SubmissionSite.Slot slot = SubmissionSite.slot();
+      SubmissionSite previous = slot.site;
+      slot.site = site;
+      try {
+        return supplier.get();
+      } finally {
+        slot.site = previous;
+      }
+    };
+  }
+
+  /**
+   * Get executor wrapped by wrap().
+   * @return wrapped executor, or null if executor is not a wrapper.
+   */
+
+  static Executor unwrap(Executor executor) {
+    if (executor instanceof SiteExecutor) {
+      return ((SiteExecutor) executor).executor;
+    }
+    if (executor instanceof SiteExecutorService) {
+      return ((SiteExecutorService) executor).executor;
+    }
+    return null;
+  }
+
+  /**
+   * Submit task with known submission site to executor service wrapped by wrap().
+   * @param executor wrapper, see unwrap().
+   * @param task task to run.
+   * @param site submission site.
+   * @return future of the task.
+   * @throws NullPointerException if task is null, as submit() does.
+   */
+
+  static <T> Future<T> submit(ExecutorService executor, Callable<T> task, SubmissionSite site) {
+    Objects.requireNonNull(task, "task is null");
+    return ((SiteExecutorService) executor).submit(task, site);
+  }
+
+  /**
+   * Submit task with known submission site to executor service wrapped by wrap().
+   * @param executor wrapper, see unwrap().
+   * @param task task to run.
+   * @param result result of the future.
+   * @param site submission site.
+   * @return future of the task.
+   * @throws NullPointerException if task is null, as submit() does.
+   */
+
+  static <T> Future<T> submit(ExecutorService executor, Runnable task, T result,
+      SubmissionSite site) {
+    Objects.requireNonNull(task, "task is null");
+    return ((SiteExecutorService) executor).submit(task, result, site);
+  }
+
+  /**
+   * Task with submission site.
+   */
+
+  private static final class SiteTask implements Runnable {
+
+    private final SubmissionSite site;
+
+    private final Runnable task;
+
+    SiteTask(SubmissionSite site, Runnable task) {
+      this.site = site;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      SubmissionSite.Slot slot = SubmissionSite.slot();
+      SubmissionSite previous = slot.site;
+      slot.site = site;
+      try {
+        task.run();
+      } finally {
+        slot.site = previous;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return task.toString();
+    }
+  }
+
+  private static final class SiteExecutor implements Executor {
+
+    private final Executor executor;
+
+    SiteExecutor(Executor executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      executor.execute(wrapTask(command));
+    }
+
+    @Override
+    public String toString() {
+      return executor.toString();
+    }
+  }
+
+  /**
+   * Executor service, tasks of submit() and invoke methods are FutureTasks of
+   * AbstractExecutorService run through execute().
+   */
+
+  private static final class SiteExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService executor;
+
+    SiteExecutorService(ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      executor.execute(wrapTask(command));
+    }
+
+    <T> Future<T> submit(Callable<T> task, SubmissionSite site) {
+      RunnableFuture<T> future = newTaskFor(task);
+      executor.execute(new SiteTask(site, future));
+      return future;
+    }
+
+    <T> Future<T> submit(Runnable task, T result, SubmissionSite site) {
+      RunnableFuture<T> future = newTaskFor(task, result);
+      executor.execute(new SiteTask(site, future));
+      return future;
+    }
+
+    @Override
+    public void shutdown() {
+      executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      // tasks never run are returned as they were submitted
+      List<Runnable> tasks = executor.shutdownNow();
+      tasks.replaceAll(task -> (task instanceof SiteTask) ? ((SiteTask) task).task : task);
+      return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+      return executor.toString();
+    }
+  }
+
+}
@@ -0,0 +1,361 @@
+package org.runaway.exception;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * RunawayLog logs RunawayExceptions asynchronously: log() only puts the exception
+ * into a bounded queue, while rendering (toString()) and SLF4J logging is done in batches
+ * by a background daemon thread, so the reporting thread does not wait for logger I/O.
+ * Logger thread sleeps while the queue is empty and wakes up on the first queued exception,
+ * then it waits for the whole batch to be queued, but no longer than 20 ms.
+ * Logged exceptions are also recorded by the process-wide ErrorRegistry, if installed,
+ * and appended to the process-wide ErrorJournal right away, if installed.
+ *
+ * <p>If process-wide ErrorAggregator is installed, only the first exception of each
+ * fingerprint is logged, repeated ones are just counted by log() with no journaling,
+ * rendering or logging, and logger thread logs the number of repeats of each fingerprint
+ * every 10 seconds.
+ *
+ * <p>Exceptions are logged at ERROR level by the logger of the throwing class.
+ * When the queue is full, exception is handled by overflow policy, see OverflowPolicy.
+ * Queue capacity and overflow policy could be set by "org.runaway.log.capacity" (default 1024)
+ * and "org.runaway.log.overflow" (default COUNT) system properties.
+ *
+ * <p>Note: exception is rendered after log() returns, so snapshots added afterwards
+ * could be logged too.
+ */
+
+public final class RunawayLog {
+
+  /**
+   * What to do with exception when the queue is full.
+   */
+
+  public enum OverflowPolicy {
+
+    /**
+     * Drop exception silently.
+     */
+
+    DROP,
+
+    /**
+     * Drop exception, count it and log the number of dropped exceptions later.
+     */
+
+    COUNT,
+
+    /**
+     * Wait until the queue has room for exception.
+     */
+
+    BLOCK
+  }
+
+  /**
+   * Max number of exceptions logged at once.
+   */
+
+  private static final int BATCH_SIZE = 64;
+
+  /**
+   * Max time exception waits in the queue for a batch to be filled.
+   */
+
+  private static final long BATCH_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private static final long SHUTDOWN_FLUSH_MILLIS = 1000;
+
+  private static final long REPEATS_REPORT_MILLIS = 10000;
+
+  private static final Logger LOG = LoggerFactory.getLogger(RunawayLog.class);
+
+  private static final LogQueue QUEUE =
+      new LogQueue(Integer.getInteger("org.runaway.log.capacity", 1024));
+
+  private static volatile OverflowPolicy overflowPolicy =
+      parseOverflowPolicy(System.getProperty("org.runaway.log.overflow"));
+
+  private static final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Number of dropped exceptions already logged, used by logger thread only.
+   */
+
+  private static long droppedReported = 0;
+
+  /**
+   * Time of the next report of repeated exceptions, used by logger thread only.
+   */
+
+  private static long nextRepeatsReport = System.currentTimeMillis() + REPEATS_REPORT_MILLIS;
+
+  /**
+   * Number of exceptions logged so far, see flush().
+   */
+
+  private static volatile long logged = 0;
+
+  private static final int RUNNING = 0;
+
+  private static final int WAITING_EXCEPTION = 1;
+
+  private static final int WAITING_BATCH = 2;
+
+  /**
+   * Logger thread state: RUNNING, or parked with empty queue (WAITING_EXCEPTION),
+   * or parked until the batch is filled (WAITING_BATCH).
+   */
+
+  private static volatile int state = RUNNING;
+
+  private static final Thread LOGGER = startLogger();
+
+  private RunawayLog() {
+  }
+
+  /**
+   * Log exception asynchronously.
+   * @param exception exception to log, ignored if null.
+   */
+
+  public static void log(RunawayException exception) {
+    if (exception == null) {
+      return;
+    }
+
+    // repeated error is only counted, it costs no more than the throw itself
+    ErrorAggregator aggregator = ErrorAggregator.global();
+    if (aggregator != null && !aggregator.offer(exception)) {
+      return;
+    }
+
+    // journal is written right away, so the exception survives crash before it is logged
+    ErrorJournal journal = ErrorJournal.global();
+    if (journal != null) {
+      journal.append(exception);
+    }
+
+    if (!QUEUE.offer(exception)) {
+      overflow(exception);
+      return;
+    }
+
+    // wake logger thread up for the first exception and then only for the whole batch,
+    // waking it up costs more than queueing, especially on a busy CPU
+    int loggerState = state;
+    if (loggerState == WAITING_EXCEPTION
+        || (loggerState == WAITING_BATCH && QUEUE.size() >= BATCH_SIZE)) {
+      LockSupport.unpark(LOGGER);
+    }
+  }
+
+  private static void overflow(RunawayException exception) {
+    OverflowPolicy policy = overflowPolicy;
+    if (policy == OverflowPolicy.DROP) {
+      return;
+    }
+
+    // logger thread could log exception itself, e.g. by appender, it should never wait
+    if (policy == OverflowPolicy.COUNT || Thread.currentThread() == LOGGER) {
+      dropped.incrementAndGet();
+      return;
+    }
+
+    while (!QUEUE.offer(exception)) {
+      LockSupport.unpark(LOGGER);
+      LockSupport.parkNanos(BLOCK_PARK_NANOS);
+    }
+    LockSupport.unpark(LOGGER);
+  }
+
+  /**
+   * Set what to do with exception when the queue is full.
+   * @param policy overflow policy, not null.
+   */
+
+  public static void setOverflowPolicy(OverflowPolicy policy) {
+    if (policy == null) {
+      throw new IllegalArgumentException("policy is null");
+    }
+    overflowPolicy = policy;
+  }
+
+  public static OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Parse overflow policy of system property, case insensitive.
+   * @param value property value, or null.
+   * @return policy, COUNT if value is null or unknown.
+   */
+
+  private static OverflowPolicy parseOverflowPolicy(String value) {
+    if (value == null) {
+      return OverflowPolicy.COUNT;
+    }
+    for (OverflowPolicy policy: OverflowPolicy.values()) {
+      if (policy.name().equalsIgnoreCase(value.trim())) {
+        return policy;
+      }
+    }
+    LOG.warn("Unknown org.runaway.log.overflow value '{}', COUNT is used", value);
+    return OverflowPolicy.COUNT;
+  }
+
+  /**
+   * Get number of exceptions dropped by COUNT overflow policy, or by BLOCK policy
+   * when logger thread logs exception itself.
+   * @return number of dropped exceptions.
+   */
+
+  public static long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Wait until exceptions queued before this call are logged.
+   * @param timeoutMillis max time to wait.
+   * @return true if logged, false on timeout.
+   */
+
+  public static boolean flush(long timeoutMillis) {
+    long target = QUEUE.offered();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    while (logged < target) {
+      if (System.nanoTime() - deadline >= 0 || Thread.currentThread() == LOGGER) {
+        return false;
+      }
+      LockSupport.unpark(LOGGER);
+      LockSupport.parkNanos(BLOCK_PARK_NANOS);
+    }
+    return true;
+  }
+
+  private static Thread startLogger() {
+    Thread thread = new Thread(RunawayLog::run, "runaway-log");
+    thread.setDaemon(true);
+    thread.start();
+
+    // daemon threads keep running during shutdown, let logger thread log the rest
+    Runtime.getRuntime().addShutdownHook(
+        new Thread(() -> flush(SHUTDOWN_FLUSH_MILLIS), "runaway-log-flush"));
+    return thread;
+  }
+
+  private static void run() {
+    while (true) {
+      if (logBatch() > 0) {
+        continue;
+      }
+
+      // state is set before the queue is checked, and producers check state after
+      // queueing, so either logger thread sees the exception or the producer unparks it
+      state = WAITING_EXCEPTION;
+      if (QUEUE.isEmpty()) {
+        parkUntilRepeatsReport();
+      }
+      state = WAITING_BATCH;
+      if (!QUEUE.isEmpty() && QUEUE.size() < BATCH_SIZE) {
+        LockSupport.parkNanos(BATCH_PARK_NANOS);
+      }
+      state = RUNNING;
+    }
+  }
+
+  /**
+   * Park logger thread until it is unparked, or until repeated exceptions
+   * should be reported if ErrorAggregator is installed.
+   */
+
+  private static void parkUntilRepeatsReport() {
+    if (ErrorAggregator.global() == null) {
+      LockSupport.park();
+      return;
+    }
+    long delay = nextRepeatsReport - System.currentTimeMillis();
+    if (delay > 0) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(delay));
+    }
+  }
+
+  /**
+   * Log up to BATCH_SIZE queued exceptions.
+   * @return number of exceptions logged.
+   */
+
+  private static int logBatch() {
+    int count = 0;
+    RunawayException exception;
+
+    while (count < BATCH_SIZE && (exception = QUEUE.poll()) != null) {
+      emit(exception);
+      ++count;
+    }
+
+    logged = QUEUE.taken();
+    reportDropped();
+    reportRepeats();
+    return count;
+  }
+
+  private static void emit(RunawayException exception) {
+    try {
+      ErrorRegistry registry = ErrorRegistry.global();
+      if (registry != null) {
+        registry.record(exception);
+      }
+
+      String className = exception.getThrowingClassName();
+      Logger logger = LoggerFactory.getLogger(
+          (className != null) ? className : exception.getClass().getName());
+      if (logger.isErrorEnabled()) {
+        logger.error(exception.toString());
+      }
+    } catch (RuntimeException e) { /* should not be here */
+      // failed logger or snapshot should not stop logger thread
+    }
+  }
+
+  private static void reportDropped() {
+    long count = dropped.get();
+    if (count == droppedReported) {
+      return;
+    }
+
+    try {
+      LOG.warn("RunawayLog queue overflow: {} exceptions dropped, {} in total",
+          count - droppedReported, count);
+    } catch (RuntimeException e) { /* should not be here */
+      // nothing else to report to
+    }
+    droppedReported = count;
+  }
+
+  private static void reportRepeats() {
+    ErrorAggregator aggregator = ErrorAggregator.global();
+    long now = System.currentTimeMillis();
+    if (aggregator == null || now < nextRepeatsReport) {
+      return;
+    }
+    nextRepeatsReport = now + REPEATS_REPORT_MILLIS;
+
+    try {
+      aggregator.drainRepeats((stats, repeats) ->
+          LOG.warn("Error {} of {} repeated {} more times, tech support code of the first one: {}",
+              Long.toHexString(stats.getFingerprint()), stats.getThrowingClassName(),
+              repeats, stats.getTechSupportCode()));
+    } catch (RuntimeException e) { /* should not be here */
+      // nothing else to report to
+    }
+  }
+
+}
@@ -0,0 +1,442 @@
+package org.runaway.exception;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * RunawayMetrics counts what the exception machinery costs in production:
+ * exceptions created per class and per throw site, of() reuse vs wrapping, snapshots,
+ * latency of resolving the current frame of snap() and at(), and toString() rendering.
+ *
+ * <p>Metrics are disabled by default, then each instrumented operation costs
+ * one volatile read. Enable them by setEnabled() or "org.runaway.metrics" system property,
+ * which also registers JMX MBean, see RunawayMetricsMXBean and registerMBean().
+ * Counters are LongAdders, striped per CPU, so threads do not contend for them.
+ * Metrics could also be passed to another metrics library by a Listener.
+ */
+
+public final class RunawayMetrics {
+
+  /**
+   * How of() converted throwable.
+   */
+
+  public enum Conversion {
+
+    /**
+     * RunawayException of the same thread returned as is.
+     */
+
+    REUSED,
+
+    /**
+     * Other throwable wrapped into new exception.
+     */
+
+    WRAPPED,
+
+    /**
+     * RunawayException of another thread wrapped into new exception.
+     */
+
+    CROSS_THREAD
+  }
+
+  /**
+   * Callback of metrics, e.g. to feed another metrics library.
+   * Called by the thread of the operation, so it should be fast and not throw.
+   */
+
+  public interface Listener {
+
+    default void exceptionCreated(String className, StackTraceElement throwSite) {
+    }
+
+    default void converted(Conversion conversion) {
+    }
+
+    default void snapped(int count) {
+    }
+
+    default void frameResolved(long nanos) {
+    }
+
+    default void rendered(int chars, long nanos) {
+    }
+  }
+
+  static final String OBJECT_NAME = "org.runaway:type=RunawayMetrics";
+
+  /**
+   * Max number of throw sites counted separately.
+   */
+
+  private static final int MAX_SITES = 1024;
+
+  private static final String OTHER_SITES = "(other)";
+
+  private static final int HISTOGRAM_BUCKETS = 32;
+
+  private static volatile boolean enabled = false;
+
+  private static volatile Listener listener = null;
+
+  private static final LongAdder CREATED = new LongAdder();
+
+  private static final ConcurrentHashMap<String, LongAdder> CREATED_BY_CLASS =
+      new ConcurrentHashMap<>();
+
+  private static final ConcurrentHashMap<StackTraceElement, LongAdder> CREATED_BY_SITE =
+      new ConcurrentHashMap<>();
+
+  private static final LongAdder CREATED_AT_OTHER_SITES = new LongAdder();
+
+  private static final LongAdder[] CONVERSIONS = {new LongAdder(), new LongAdder(),
+      new LongAdder()};
+
+  private static final LongAdder SNAPS = new LongAdder();
+
+  private static final Histogram FRAME_RESOLVE = new Histogram();
+
+  private static final LongAdder RENDERED_CHARS = new LongAdder();
+
+  private static final Histogram RENDER = new Histogram();
+
+  private static final Bean BEAN = new Bean();
+
+  private static volatile boolean registered = false;
+
+  static {
+    if (Boolean.getBoolean("org.runaway.metrics")) {
+      setEnabled(true);
+    }
+  }
+
+  private RunawayMetrics() {
+  }
+
+  /**
+   * Enable or disable metrics, enabling registers JMX MBean if not yet.
+   * @param enable true to enable.
+   */
+
+  public static void setEnabled(boolean enable) {
+    if (enable) {
+      registerMBean();
+    }
+    enabled = enable;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Set metrics callback, called only when metrics are enabled.
+   * @param metricsListener listener, null to remove it.
+   */
+
+  public static void setListener(Listener metricsListener) {
+    listener = metricsListener;
+  }
+
+  /**
+   * Get metrics, the same object registered as JMX MBean.
+   * @return metrics bean.
+   */
+
+  public static RunawayMetricsMXBean getMXBean() {
+    return BEAN;
+  }
+
+  /**
+   * Register JMX MBean "org.runaway:type=RunawayMetrics" in platform MBean server,
+   * if not registered yet.
+   * @return false if MBean could not be registered, e.g. JMX is not available.
+   */
+
+  public static synchronized boolean registerMBean() {
+    if (registered) {
+      return true;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(BEAN, name);
+      }
+      registered = true;
+    } catch (JMException | RuntimeException | LinkageError e) { /* should not be here */
+      // metrics are still counted and available by getMXBean()
+    }
+    return registered;
+  }
+
+  /**
+   * Count new exception, called by constructors when metrics are enabled.
+   */
+
+  static void created(RunawayException exception) {
+    CREATED.increment();
+    String className = exception.getClass().getName();
+    increment(CREATED_BY_CLASS, className);
+
+    StackTraceElement[] stack = exception.getStackElements();
+    int topFrame = exception.getTopFrame();
+    StackTraceElement site = (topFrame < stack.length) ? stack[topFrame] : null;
+    if (site != null) {
+      if (CREATED_BY_SITE.size() < MAX_SITES || CREATED_BY_SITE.containsKey(site)) {
+        increment(CREATED_BY_SITE, site);
+      } else {
+        CREATED_AT_OTHER_SITES.increment();
+      }
+    }
+
+    Listener current = listener;
+    if (current != null) {
+      try {
+        current.exceptionCreated(className, site);
+      } catch (RuntimeException e) { /* should not be here */
+        // buggy listener should not fail the exception
+      }
+    }
+  }
+
+  private static <K> void increment(ConcurrentHashMap<K, LongAdder> counters, K key) {
+    LongAdder counter = counters.get(key);
+    if (counter == null) {
+      LongAdder created = new LongAdder();
+      counter = counters.putIfAbsent(key, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.increment();
+  }
+
+  /**
+   * Count of() call, called when metrics are enabled.
+   */
+
+  static void converted(Conversion conversion) {
+    CONVERSIONS[conversion.ordinal()].increment();
+    Listener current = listener;
+    if (current != null) {
+      try {
+        current.converted(conversion);
+      } catch (RuntimeException e) { /* should not be here */
+        // buggy listener should not fail the exception
+      }
+    }
+  }
+
+  /**
+   * Count snapshots, called when metrics are enabled.
+   */
+
+  static void snapped(int count) {
+    SNAPS.add(count);
+    Listener current = listener;
+    if (current != null) {
+      try {
+        current.snapped(count);
+      } catch (RuntimeException e) { /* should not be here */
+        // buggy listener should not fail the exception
+      }
+    }
+  }
+
+  /**
+   * Record time of resolving the current frame, called when metrics are enabled.
+   */
+
+  static void frameResolved(long nanos) {
+    FRAME_RESOLVE.record(nanos);
+    Listener current = listener;
+    if (current != null) {
+      try {
+        current.frameResolved(nanos);
+      } catch (RuntimeException e) { /* should not be here */
+        // buggy listener should not fail the exception
+      }
+    }
+  }
+
+  /**
+   * Record toString() rendering, called when metrics are enabled.
+   */
+
+  static void rendered(int chars, long nanos) {
+    RENDERED_CHARS.add(chars);
+    RENDER.record(nanos);
+    Listener current = listener;
+    if (current != null) {
+      try {
+        current.rendered(chars, nanos);
+      } catch (RuntimeException e) { /* should not be here */
+        // buggy listener should not fail the exception
+      }
+    }
+  }
+
+  /**
+   * Latency histogram by log2 buckets, see RunawayMetricsMXBean.
+   */
+
+  private static final class Histogram {
+
+    private final LongAdder[] buckets = new LongAdder[HISTOGRAM_BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    Histogram() {
+      for (int index = 0; index < buckets.length; index++) {
+        buckets[index] = new LongAdder();
+      }
+    }
+
+    void record(long nanos) {
+      long value = Math.max(nanos, 0);
+      int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), HISTOGRAM_BUCKETS - 1);
+      buckets[bucket].increment();
+      count.increment();
+      totalNanos.add(value);
+    }
+
+    long[] counts() {
+      long[] counts = new long[buckets.length];
+      for (int index = 0; index < buckets.length; index++) {
+        counts[index] = buckets[index].sum();
+      }
+      return counts;
+    }
+
+    void reset() {
+      for (LongAdder bucket: buckets) {
+        bucket.reset();
+      }
+      count.reset();
+      totalNanos.reset();
+    }
+  }
+
+  /**
+   * JMX MBean, see RunawayMetricsMXBean.
+   */
+
+  private static final class Bean implements RunawayMetricsMXBean {
+
+    @Override
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enable) {
+      enabled = enable;
+    }
+
+    @Override
+    public void reset() {
+      CREATED.reset();
+      CREATED_BY_CLASS.clear();
+      CREATED_BY_SITE.clear();
+      CREATED_AT_OTHER_SITES.reset();
+      for (LongAdder conversion: CONVERSIONS) {
+        conversion.reset();
+      }
+      SNAPS.reset();
+      FRAME_RESOLVE.reset();
+      RENDERED_CHARS.reset();
+      RENDER.reset();
+    }
+
+    @Override
+    public long getCreatedCount() {
+      return CREATED.sum();
+    }
+
+    @Override
+    public Map<String, Long> getCreatedByClass() {
+      Map<String, Long> counts = new LinkedHashMap<>();
+      CREATED_BY_CLASS.forEach((className, count) -> counts.put(className, count.sum()));
+      return counts;
+    }
+
+    @Override
+    public Map<String, Long> getCreatedBySite() {
+      Map<String, Long> counts = new LinkedHashMap<>();
+      CREATED_BY_SITE.forEach((site, count) -> counts.merge(site.toString(), count.sum(),
+          Long::sum));
+      long other = CREATED_AT_OTHER_SITES.sum();
+      if (other > 0) {
+        counts.put(OTHER_SITES, other);
+      }
+      return counts;
+    }
+
+    @Override
+    public long getOfReusedCount() {
+      return CONVERSIONS[Conversion.REUSED.ordinal()].sum();
+    }
+
+    @Override
+    public long getOfWrappedCount() {
+      return CONVERSIONS[Conversion.WRAPPED.ordinal()].sum();
+    }
+
+    @Override
+    public long getOfCrossThreadCount() {
+      return CONVERSIONS[Conversion.CROSS_THREAD.ordinal()].sum();
+    }
+
+    @Override
+    public long getSnapCount() {
+      return SNAPS.sum();
+    }
+
+    @Override
+    public long getFrameResolveCount() {
+      return FRAME_RESOLVE.count.sum();
+    }
+
+    @Override
+    public long getFrameResolveNanos() {
+      return FRAME_RESOLVE.totalNanos.sum();
+    }
+
+    @Override
+    public long[] getFrameResolveHistogram() {
+      return FRAME_RESOLVE.counts();
+    }
+
+    @Override
+    public long getRenderCount() {
+      return RENDER.count.sum();
+    }
+
+    @Override
+    public long getRenderedChars() {
+      return RENDERED_CHARS.sum();
+    }
+
+    @Override
+    public long getRenderNanos() {
+      return RENDER.totalNanos.sum();
+    }
+
+    @Override
+    public long[] getRenderHistogram() {
+      return RENDER.counts();
+    }
+  }
+
+}
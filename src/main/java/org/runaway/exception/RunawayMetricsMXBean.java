@@ -0,0 +1,76 @@
+package org.runaway.exception;
+
+import java.util.Map;
+
+/**
+ * Management interface of RunawayMetrics, registered as "org.runaway:type=RunawayMetrics".
+ * Histograms are arrays of counts by log2 buckets: bucket 0 counts 0 ns,
+ * bucket i counts durations from 2^(i-1) up to 2^i ns, the last bucket counts the rest.
+ */
+
+public interface RunawayMetricsMXBean {
+
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  /**
+   * Reset all counters.
+   */
+
+  void reset();
+
+  long getCreatedCount();
+
+  /**
+   * Get numbers of exceptions created by exception class name.
+   */
+
+  Map<String, Long> getCreatedByClass();
+
+  /**
+   * Get numbers of exceptions created by throw site - the first stack frame,
+   * sites over the limit are counted as "(other)".
+   */
+
+  Map<String, Long> getCreatedBySite();
+
+  /**
+   * Get number of of() calls returning exception of the same thread as is.
+   */
+
+  long getOfReusedCount();
+
+  /**
+   * Get number of of() calls wrapping other throwable.
+   */
+
+  long getOfWrappedCount();
+
+  /**
+   * Get number of of() calls wrapping RunawayException of another thread.
+   */
+
+  long getOfCrossThreadCount();
+
+  long getSnapCount();
+
+  long getFrameResolveCount();
+
+  long getFrameResolveNanos();
+
+  long[] getFrameResolveHistogram();
+
+  /**
+   * Get number of toString() renderings, renderings kept for repeated calls are not counted.
+   */
+
+  long getRenderCount();
+
+  long getRenderedChars();
+
+  long getRenderNanos();
+
+  long[] getRenderHistogram();
+
+}
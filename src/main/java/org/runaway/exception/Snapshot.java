@@ -1,10 +1,13 @@
 package org.runaway.exception;
 
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 /**
 * Snapshot of some variable - [name x value] pair -
 * at a specific execution point in a stack trace frame.
+* Value is kept as object reference (or its supplier) and converted to string
+* only when requested, e.g. when the exception is logged.
 */
 
 class Snapshot implements Serializable {
@@ -17,10 +20,16 @@ class Snapshot implements Serializable {
   private final String name;
 
   /**
-   * Value of the variable as string.
+   * Value of the variable - string, object or supplier of the value.
    */
 
-  private final String value;
+  private final Object value;
+
+  /**
+   * True if value is a supplier of the value.
+   */
+
+  private final boolean supplied;
 
   /**
    * Constructor.
@@ -29,20 +38,66 @@ class Snapshot implements Serializable {
    */
 
   public Snapshot(String name, String value) {
+    this(name, value, false);
+  }
+
+  private Snapshot(String name, Object value, boolean supplied) {
     this.name = name;
     this.value = value;
+    this.supplied = supplied;
+  }
+
+  /**
+   * Create snapshot of an object, converted to string when value is requested.
+   * @param name var name or info string.
+   * @param object could be null.
+   * @return snapshot
+   */
+
+  static Snapshot of(String name, Object object) {
+    return new Snapshot(name, object, false);
+  }
+
+  /**
+   * Create snapshot with value provided by supplier when value is requested.
+   * @param name var name or info string.
+   * @param supplier could be null.
+   * @return snapshot
+   */
+
+  static Snapshot supplied(String name, Supplier<?> supplier) {
+    return new Snapshot(name, supplier, supplier != null);
   }
 
   public String getName() {
     return name;
   }
-  
+
+  /**
+   * Get value as string, converting object or calling supplier if needed,
+   * limited by CapturePolicy.getMaxSnapshotLength().
+   * @return value, could be null.
+   */
+
   public String getValue() {
-    return value;
+    return SnapshotFormat.toString(value, supplied, SnapshotFormat.maxSnapshotLength());
+  }
+
+  /**
+   * Replace snapshot with its string value when serialized,
+   * as the object could be not serializable.
+   * @return snapshot with string value.
+   */
+
+  private Object writeReplace() {
+    if (!supplied && (value == null || value instanceof String)) {
+      return this;
+    }
+    return new Snapshot(name, getValue());
   }
 
   @Override
   public String toString() {
-    return String.format("[%s=%s]", name, value);
+    return String.format("[%s=%s]", name, getValue());
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package org.runaway.exception;
+
+import java.util.function.Supplier;
+
+/**
+ * SnapshotBatch collects several snapshots for one stack trace frame,
+ * which is determined only once - when the batch is started by RunawayException.at().
+ * Typical usage in a catch block:
+ * <pre>
+ *   RunawayException re = RunawayException.of(e);
+ *   throw re.at().snap("paramA", paramA).snap("x", x).commit();
+ * </pre>
+ * Snapshots are added to the exception only when the batch is committed.
+ */
+
+public final class SnapshotBatch {
+
+  private final RunawayException exception;
+
+  /**
+   * Frame number of the frame which started the batch, could be undefined.
+   */
+
+  private final TraceNumber frameNumber;
+
+  private final SnapshotStore snapshots = new SnapshotStore();
+
+  SnapshotBatch(RunawayException exception, TraceNumber frameNumber) {
+    this.exception = exception;
+    this.frameNumber = frameNumber;
+  }
+
+  /**
+   * Add one snapshot to the batch, object is converted to string when rendered.
+   * @param name Name of variable, or any other info or id string.
+   * @param object Value of the variable.
+   * @return this batch
+   */
+
+  public <T> SnapshotBatch snap(String name, T object) {
+    snapshots.add(name, object);
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch, value is provided by supplier when rendered.
+   * @param name Name of variable, or any other info or id string.
+   * @param supplier Supplier of the value.
+   * @return this batch
+   */
+
+  public SnapshotBatch snap(String name, Supplier<?> supplier) {
+    snapshots.addSupplied(name, supplier);
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch, object is converted to string right away.
+   * @param name Name of variable, or any other info or id string.
+   * @param object Value of the variable.
+   * @return this batch
+   */
+
+  public <T> SnapshotBatch snapNow(String name, T object) {
+    snapshots.add(name, SnapshotFormat.toString(object, false,
+          SnapshotFormat.maxSnapshotLength()));
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, int value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_INT, value);
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, long value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_LONG, value);
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, boolean value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_BOOLEAN, value ? 1 : 0);
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, double value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, float value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_FLOAT, Float.floatToRawIntBits(value));
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, char value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_CHAR, value);
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, short value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_SHORT, value);
+    return this;
+  }
+
+  /**
+   * Add one snapshot to the batch.
+   */
+
+  public SnapshotBatch snap(String name, byte value) {
+    snapshots.addPrimitive(name, SnapshotStore.TYPE_BYTE, value);
+    return this;
+  }
+
+  /**
+   * Add all collected snapshots to the matching stack frame of the exception.
+   * The batch is empty after commit and could be reused for the same frame.
+   * @return the exception, so it could be thrown right away.
+   */
+
+  public RunawayException commit() {
+    exception.addSnapshots(frameNumber, snapshots);
+    snapshots.clear();
+    return exception;
+  }
+
+}
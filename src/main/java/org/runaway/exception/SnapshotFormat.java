@@ -0,0 +1,297 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * SnapshotFormat converts snapshot values to strings within a length limit:
+ * value is written through BoundedAppendable, which stops writing as soon as
+ * the limit is reached, and cut value is marked by TRUNCATED.
+ * Collections, maps and arrays are summarized by their size and the first
+ * SUMMARY_ELEMENTS elements, so large ones are never rendered completely:
+ * <pre>
+ *   [1, 2, 3]                         - up to SUMMARY_ELEMENTS elements, as toString();
+ *   (2000000 items)[0, 1, 2, ..., 15, ...] - larger collections and arrays;
+ *   (5000 entries){a=1, b=2, ...}     - larger maps.
+ * </pre>
+ * Other objects are converted by toString() and then cut, the string is not kept.
+ * Arrays are read with no reflection, so elements of primitive arrays are not boxed.
+ */
+
+final class SnapshotFormat {
+
+  /**
+   * Mark of value cut at the limit.
+   */
+
+  static final String TRUNCATED = "...<truncated>";
+
+  /**
+   * Max number of collection, map or array elements rendered.
+   */
+
+  static final int SUMMARY_ELEMENTS = 16;
+
+  /**
+   * Max nesting of collections, maps and arrays rendered with their elements,
+   * deeper ones are rendered by size only.
+   */
+
+  private static final int MAX_NESTING = 4;
+
+  private SnapshotFormat() {
+  }
+
+  /**
+   * Convert policy limit to length limit.
+   * @param policyLimit limit of CapturePolicy, 0 or less for no limit.
+   * @return length limit.
+   */
+
+  static int limit(int policyLimit) {
+    return (policyLimit <= 0) ? Integer.MAX_VALUE : policyLimit;
+  }
+
+  /**
+   * Get max length of one snapshot value, see CapturePolicy.getMaxSnapshotLength().
+   * @return length limit.
+   */
+
+  static int maxSnapshotLength() {
+    return limit(CapturePolicies.getPolicy().getMaxSnapshotLength());
+  }
+
+  /**
+   * Convert value to string.
+   * @param value object or supplier of the value, could be null.
+   * @param supplied true if value is a supplier.
+   * @param maxLength max number of value chars, not counting TRUNCATED mark.
+   * @return value as string, could be null.
+   */
+
+  static String toString(Object value, boolean supplied, int maxLength) {
+    Object current;
+    try {
+      current = supplied ? ((Supplier<?>) value).get() : value;
+    } catch (RuntimeException e) { /* buggy supplier should not fail the whole trace */
+      return failure(e);
+    }
+
+    if (current == null) {
+      return null;
+    }
+    if (current instanceof String && ((String) current).length() <= maxLength) {
+      return (String) current;
+    }
+
+    StringBuilder builder = new StringBuilder(Math.min(maxLength, 256) + TRUNCATED.length());
+    try {
+      appendTo(current, builder, maxLength);
+    } catch (IOException e) { /* should not be here */
+      // StringBuilder does not throw
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Append value, null value is appended as "null".
+   * @param value object or supplier of the value, could be null.
+   * @param supplied true if value is a supplier.
+   * @param out destination.
+   * @param maxLength max number of value chars, not counting TRUNCATED mark.
+   * @return number of value chars appended.
+   * @throws IOException if destination fails.
+   */
+
+  static int append(Object value, boolean supplied, Appendable out, int maxLength)
+      throws IOException {
+    Object current;
+    try {
+      current = supplied ? ((Supplier<?>) value).get() : value;
+    } catch (RuntimeException e) { /* buggy supplier should not fail the whole trace */
+      String message = failure(e);
+      out.append(message);
+      return message.length();
+    }
+    return appendTo(current, out, maxLength);
+  }
+
+  private static int appendTo(Object value, Appendable out, int maxLength) throws IOException {
+    BoundedAppendable bounded = new BoundedAppendable(out, maxLength);
+    try {
+      appendObject(value, bounded, 0);
+    } catch (BoundedAppendable.LimitReached e) {
+      out.append(TRUNCATED);
+    } catch (RuntimeException e) { /* buggy toString() should not fail the whole trace */
+      out.append(failure(e));
+    }
+    return bounded.length();
+  }
+
+  private static String failure(RuntimeException e) {
+    return "<failed to stringify: " + e.toString() + ">";
+  }
+
+  private static void appendObject(Object value, Appendable out, int nesting)
+      throws IOException {
+    if (value == null || value instanceof CharSequence) {
+      out.append((CharSequence) value);
+    } else if (value instanceof Collection) {
+      appendCollection((Collection<?>) value, out, nesting);
+    } else if (value instanceof Map) {
+      appendMap((Map<?, ?>) value, out, nesting);
+    } else if (value.getClass().isArray()) {
+      appendArray(value, out, nesting);
+    } else {
+      out.append(value.toString());
+    }
+  }
+
+  private static void appendCollection(Collection<?> collection, Appendable out, int nesting)
+      throws IOException {
+    int size = collection.size();
+    if (appendSize(size, " items)", out, nesting)) {
+      return;
+    }
+
+    out.append('[');
+    Iterator<?> elements = collection.iterator();
+    for (int index = 0; index < SUMMARY_ELEMENTS && elements.hasNext(); index++) {
+      if (index > 0) {
+        out.append(", ");
+      }
+      Object element = elements.next();
+      if (element == collection) {
+        out.append("(this Collection)");
+      } else {
+        appendObject(element, out, nesting + 1);
+      }
+    }
+    if (elements.hasNext()) {
+      out.append(", ...");
+    }
+    out.append(']');
+  }
+
+  private static void appendMap(Map<?, ?> map, Appendable out, int nesting) throws IOException {
+    int size = map.size();
+    if (appendSize(size, " entries)", out, nesting)) {
+      return;
+    }
+
+    out.append('{');
+    Iterator<? extends Map.Entry<?, ?>> entries = map.entrySet().iterator();
+    for (int index = 0; index < SUMMARY_ELEMENTS && entries.hasNext(); index++) {
+      if (index > 0) {
+        out.append(", ");
+      }
+      Map.Entry<?, ?> entry = entries.next();
+      if (entry.getKey() == map) {
+        out.append("(this Map)");
+      } else {
+        appendObject(entry.getKey(), out, nesting + 1);
+      }
+      out.append('=');
+      if (entry.getValue() == map) {
+        out.append("(this Map)");
+      } else {
+        appendObject(entry.getValue(), out, nesting + 1);
+      }
+    }
+    if (entries.hasNext()) {
+      out.append(", ...");
+    }
+    out.append('}');
+  }
+
+  private static void appendArray(Object array, Appendable out, int nesting)
+      throws IOException {
+    int length = arrayLength(array);
+    if (appendSize(length, " items)", out, nesting)) {
+      return;
+    }
+
+    out.append('[');
+    int count = Math.min(length, SUMMARY_ELEMENTS);
+    for (int index = 0; index < count; index++) {
+      if (index > 0) {
+        out.append(", ");
+      }
+      appendElement(array, index, out, nesting);
+    }
+    if (length > count) {
+      out.append(", ...");
+    }
+    out.append(']');
+  }
+
+  private static int arrayLength(Object array) {
+    if (array instanceof Object[]) {
+      return ((Object[]) array).length;
+    } else if (array instanceof int[]) {
+      return ((int[]) array).length;
+    } else if (array instanceof long[]) {
+      return ((long[]) array).length;
+    } else if (array instanceof double[]) {
+      return ((double[]) array).length;
+    } else if (array instanceof byte[]) {
+      return ((byte[]) array).length;
+    } else if (array instanceof char[]) {
+      return ((char[]) array).length;
+    } else if (array instanceof boolean[]) {
+      return ((boolean[]) array).length;
+    } else if (array instanceof float[]) {
+      return ((float[]) array).length;
+    } else {
+      return ((short[]) array).length;
+    }
+  }
+
+  private static void appendElement(Object array, int index, Appendable out, int nesting)
+      throws IOException {
+    if (array instanceof Object[]) {
+      Object element = ((Object[]) array)[index];
+      if (element == array) {
+        out.append("(this Array)");
+      } else {
+        appendObject(element, out, nesting + 1);
+      }
+    } else if (array instanceof int[]) {
+      RenderBuffer.appendNumber(out, ((int[]) array)[index]);
+    } else if (array instanceof long[]) {
+      RenderBuffer.appendNumber(out, ((long[]) array)[index]);
+    } else if (array instanceof double[]) {
+      out.append(Double.toString(((double[]) array)[index]));
+    } else if (array instanceof byte[]) {
+      RenderBuffer.appendNumber(out, ((byte[]) array)[index]);
+    } else if (array instanceof char[]) {
+      out.append(((char[]) array)[index]);
+    } else if (array instanceof boolean[]) {
+      out.append(((boolean[]) array)[index] ? "true" : "false");
+    } else if (array instanceof float[]) {
+      out.append(Float.toString(((float[]) array)[index]));
+    } else {
+      RenderBuffer.appendNumber(out, ((short[]) array)[index]);
+    }
+  }
+
+  /**
+   * Append size of large or deeply nested container, like "(2000000 items)".
+   * @return true if only size is rendered, as container is nested too deep.
+   */
+
+  private static boolean appendSize(int size, String unit, Appendable out, int nesting)
+      throws IOException {
+    boolean sizeOnly = nesting >= MAX_NESTING;
+    if (size > SUMMARY_ELEMENTS || sizeOnly) {
+      out.append('(');
+      RenderBuffer.appendNumber(out, size);
+      out.append(unit);
+    }
+    return sizeOnly;
+  }
+
+}
@@ -0,0 +1,517 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
+
+/**
+ * SnapshotStore keeps snapshots - [name x value] pairs - of one stack trace frame
+ * in parallel arrays: names, primitive values, object values and value types.
+ * Primitive values are kept as long bits and objects as references,
+ * both are converted to strings only when rendered,
+ * so adding a snapshot allocates nothing but new chunks of the arrays.
+ *
+ * <p>Snapshots could be added by several threads at once, e.g. parallel stream workers
+ * enriching the same exception, with no locks. Each store is an append-only log
+ * of one writer thread - the one which created it: arrays are split into chunks,
+ * each one twice as large as the previous one, so they are never copied, and a snapshot
+ * is published by ordered write of size after its values. Other threads append to their
+ * own logs, linked to this one by CAS when a thread adds its first snapshot.
+ * So the writer thread pays no atomic operations, as it did with no concurrency support.
+ *
+ * <p>Readers get view() once per pass over snapshots: it is this store if only the writer
+ * thread added snapshots, or a copy of all the logs otherwise, and read it by index
+ * up to its size(), so each pass is a consistent snapshot read.
+ */
+
+final class SnapshotStore implements Serializable {
+  private static final long serialVersionUID = 20030101L;
+
+  static final byte TYPE_OBJECT = 1;
+  static final byte TYPE_SUPPLIER = 2;
+  static final byte TYPE_BOOLEAN = 3;
+  static final byte TYPE_CHAR = 4;
+  static final byte TYPE_BYTE = 5;
+  static final byte TYPE_SHORT = 6;
+  static final byte TYPE_INT = 7;
+  static final byte TYPE_LONG = 8;
+  static final byte TYPE_FLOAT = 9;
+  static final byte TYPE_DOUBLE = 10;
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  private static final AtomicIntegerFieldUpdater<SnapshotStore> SIZE =
+      AtomicIntegerFieldUpdater.newUpdater(SnapshotStore.class, "size");
+
+  private static final AtomicReferenceFieldUpdater<SnapshotStore, SnapshotStore> NEXT =
+      AtomicReferenceFieldUpdater.newUpdater(SnapshotStore.class, SnapshotStore.class, "next");
+
+  /**
+   * Id of the thread which appends to this log.
+   */
+
+  private transient long writerId;
+
+  private transient Chunk first;
+
+  /**
+   * The chunk the writer appends to.
+   */
+
+  private transient Chunk last;
+
+  /**
+   * Number of snapshots of this log, known to its writer thread only.
+   */
+
+  private transient int count = 0;
+
+  /**
+   * Number of published snapshots of this log.
+   */
+
+  private transient volatile int size = 0;
+
+  /**
+   * Log of another writer thread, the logs of all writers are linked to the first one.
+   */
+
+  private transient volatile SnapshotStore next = null;
+
+  SnapshotStore() {
+    this(INITIAL_CAPACITY);
+  }
+
+  private SnapshotStore(int capacity) {
+    writerId = Thread.currentThread().getId();
+    first = new Chunk(0, capacity);
+    last = first;
+  }
+
+  /**
+   * Add object snapshot, converted to string when rendered.
+   * @param name var name or info string.
+   * @param object could be null.
+   */
+
+  void add(String name, Object object) {
+    log().append(name, TYPE_OBJECT, 0, object);
+  }
+
+  /**
+   * Add snapshot with value provided by supplier when rendered.
+   * @param name var name or info string.
+   * @param supplier could be null.
+   */
+
+  void addSupplied(String name, Supplier<?> supplier) {
+    if (supplier == null) {
+      add(name, null);
+      return;
+    }
+    log().append(name, TYPE_SUPPLIER, 0, supplier);
+  }
+
+  /**
+   * Add primitive snapshot.
+   * @param name var name or info string.
+   * @param type one of primitive TYPE_ constants.
+   * @param bits value bits, see format().
+   */
+
+  void addPrimitive(String name, byte type, long bits) {
+    log().append(name, type, bits, null);
+  }
+
+  /**
+   * Add all snapshots of another store, up to the limit.
+   * @param other store to copy snapshots from.
+   * @param maxSize max number of snapshots in this store, 0 or less for no limit.
+   */
+
+  void addAll(SnapshotStore other, int maxSize) {
+    SnapshotStore log = log();
+    SnapshotStore view = other.view();
+    int size = view.size();
+    int count = (maxSize > 0) ? Math.min(size, Math.max(maxSize - totalSize(), 0)) : size;
+    for (int index = 0; index < count; index++) {
+      Chunk chunk = view.chunk(index);
+      int slot = index - chunk.start;
+      log.append(chunk.names[slot], chunk.types[slot], chunk.primitives[slot],
+          chunk.objects[slot]);
+    }
+  }
+
+  /**
+   * Get log of the current thread, linking a new one if the thread has none yet.
+   */
+
+  private SnapshotStore log() {
+    long threadId = Thread.currentThread().getId();
+    if (threadId == writerId) {
+      return this;
+    }
+
+    SnapshotStore log = null;
+    SnapshotStore tail = this;
+    while (true) {
+      SnapshotStore current = tail.next;
+      if (current == null) {
+        if (log == null) {
+          log = new SnapshotStore();
+        }
+        if (NEXT.compareAndSet(tail, null, log)) {
+          return log;
+        }
+        current = tail.next;
+      }
+      if (current.writerId == threadId) {
+        return current;
+      }
+      tail = current;
+    }
+  }
+
+  /**
+   * Append snapshot to this log, called by its writer thread only.
+   */
+
+  private void append(String name, byte type, long bits, Object object) {
+    int index = count;
+    Chunk chunk = last;
+    if (index == chunk.end) {
+      chunk = new Chunk(index, chunk.names.length * 2);
+      last.next = chunk;
+      last = chunk;
+    }
+
+    int slot = index - chunk.start;
+    chunk.names[slot] = name;
+    chunk.types[slot] = type;
+    chunk.primitives[slot] = bits;
+    chunk.objects[slot] = object;
+    count = index + 1;
+    // release: readers which see the new size see the snapshot values too
+    SIZE.lazySet(this, count);
+  }
+
+  /**
+   * Find chunk of published snapshot.
+   */
+
+  private Chunk chunk(int index) {
+    Chunk chunk = first;
+    while (index >= chunk.end) {
+      chunk = chunk.next;
+    }
+    return chunk;
+  }
+
+  /**
+   * Get snapshots readable by index: this store if only its writer thread added snapshots,
+   * or a copy of snapshots of all writer threads otherwise.
+   * @return store with published snapshots, see size().
+   */
+
+  SnapshotStore view() {
+    SnapshotStore log = next;
+    if (log == null) {
+      return this;
+    }
+
+    SnapshotStore copy = new SnapshotStore(Math.max(totalSize(), INITIAL_CAPACITY));
+    for (log = this; log != null; log = log.next) {
+      int count = log.size;
+      for (int index = 0; index < count; index++) {
+        Chunk chunk = log.chunk(index);
+        int slot = index - chunk.start;
+        copy.append(chunk.names[slot], chunk.types[slot], chunk.primitives[slot],
+            chunk.objects[slot]);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Remove all snapshots, only for stores of one thread, e.g. SnapshotBatch.
+   */
+
+  void clear() {
+    for (Chunk chunk = first; chunk != null; chunk = chunk.next) {
+      Arrays.fill(chunk.names, null);
+      Arrays.fill(chunk.objects, null);
+    }
+    last = first;
+    first.next = null;
+    count = 0;
+    SIZE.lazySet(this, 0);
+  }
+
+  /**
+   * Get number of snapshots readable by index, i.e. published by the writer thread
+   * of this store, see view().
+   * @return number of snapshots.
+   */
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Get number of published snapshots of all writer threads.
+   */
+
+  private int totalSize() {
+    int total = 0;
+    for (SnapshotStore log = this; log != null; log = log.next) {
+      total += log.size;
+    }
+    return total;
+  }
+
+  /**
+   * Check if no thread has added snapshots.
+   * @return true if empty.
+   */
+
+  boolean isEmpty() {
+    return size == 0 && next == null;
+  }
+
+  /**
+   * Check if the store has max number of snapshots.
+   * @param maxSize max number of snapshots, 0 or less for no limit.
+   * @return true if no more snapshots should be added.
+   */
+
+  boolean isFull(int maxSize) {
+    return maxSize > 0 && totalSize() >= maxSize;
+  }
+
+  String getName(int index) {
+    Chunk chunk = chunk(index);
+    return chunk.names[index - chunk.start];
+  }
+
+  byte getType(int index) {
+    Chunk chunk = chunk(index);
+    return chunk.types[index - chunk.start];
+  }
+
+  /**
+   * Get primitive value bits.
+   * @param index snapshot index.
+   * @return value bits, see format().
+   */
+
+  long getPrimitive(int index) {
+    Chunk chunk = chunk(index);
+    return chunk.primitives[index - chunk.start];
+  }
+
+  private Object getObject(int index) {
+    Chunk chunk = chunk(index);
+    return chunk.objects[index - chunk.start];
+  }
+
+  /**
+   * Get value as string, converting object, primitive or calling supplier if needed,
+   * limited by CapturePolicy.getMaxSnapshotLength().
+   * @param index snapshot index.
+   * @return value, could be null.
+   */
+
+  String getValue(int index) {
+    return getValue(index, SnapshotFormat.maxSnapshotLength());
+  }
+
+  /**
+   * Get value as string, converting object, primitive or calling supplier if needed.
+   * @param index snapshot index.
+   * @param maxLength max length of object value, see SnapshotFormat.
+   * @return value, could be null.
+   */
+
+  String getValue(int index, int maxLength) {
+    byte type = getType(index);
+    if (type == TYPE_OBJECT) {
+      return SnapshotFormat.toString(getObject(index), false, maxLength);
+    }
+    if (type == TYPE_SUPPLIER) {
+      return SnapshotFormat.toString(getObject(index), true, maxLength);
+    }
+    return format(type, getPrimitive(index));
+  }
+
+  /**
+   * Append value, primitive values are appended with no intermediate string
+   * if destination is StringBuilder, object values are rendered up to maxLength
+   * with no intermediate string either, see SnapshotFormat.
+   * @param index snapshot index.
+   * @param out destination.
+   * @param maxLength max length of object value.
+   * @return number of object value chars appended, 0 for primitive values.
+   * @throws IOException if destination fails.
+   */
+
+  int appendValue(int index, Appendable out, int maxLength) throws IOException {
+    Chunk chunk = chunk(index);
+    int slot = index - chunk.start;
+    byte type = chunk.types[slot];
+    switch (type) {
+      case TYPE_OBJECT:
+        return SnapshotFormat.append(chunk.objects[slot], false, out, maxLength);
+      case TYPE_SUPPLIER:
+        return SnapshotFormat.append(chunk.objects[slot], true, out, maxLength);
+      case TYPE_FLOAT:
+      case TYPE_DOUBLE:
+        out.append(format(type, chunk.primitives[slot]));
+        break;
+      case TYPE_BOOLEAN:
+        out.append((chunk.primitives[slot] != 0) ? "true" : "false");
+        break;
+      case TYPE_CHAR:
+        out.append((char) chunk.primitives[slot]);
+        break;
+      default:
+        RenderBuffer.appendNumber(out, chunk.primitives[slot]);
+    }
+    return 0;
+  }
+
+  /**
+   * Convert primitive value bits to string.
+   * @param type one of primitive TYPE_ constants.
+   * @param bits value bits: integral values as is, float and double as raw bits,
+   *     boolean as 1 or 0.
+   * @return value as string.
+   */
+
+  static String format(byte type, long bits) {
+    switch (type) {
+      case TYPE_BOOLEAN:
+        return Boolean.toString(bits != 0);
+      case TYPE_CHAR:
+        return String.valueOf((char) bits);
+      case TYPE_FLOAT:
+        return Float.toString(Float.intBitsToFloat((int) bits));
+      case TYPE_DOUBLE:
+        return Double.toString(Double.longBitsToDouble(bits));
+      default:
+        return Long.toString(bits);
+    }
+  }
+
+  /**
+   * Get snapshots as list, snapshots are created on each access.
+   * The list has the snapshots published when it is created.
+   * @return read-only list of snapshots.
+   */
+
+  List<Snapshot> asList() {
+    SnapshotStore view = view();
+    int size = view.size();
+    return new AbstractList<Snapshot>() {
+      @Override
+      public Snapshot get(int index) {
+        if (index < 0 || index >= size) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        byte type = view.getType(index);
+        if (type == TYPE_OBJECT) {
+          return Snapshot.of(view.getName(index), view.getObject(index));
+        }
+        if (type == TYPE_SUPPLIER) {
+          return Snapshot.supplied(view.getName(index), (Supplier<?>) view.getObject(index));
+        }
+        return new Snapshot(view.getName(index), format(type, view.getPrimitive(index)));
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Write snapshots, objects are written as strings since they could be not serializable.
+   */
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    SnapshotStore view = view();
+    int count = view.size();
+    out.writeInt(count);
+    for (int index = 0; index < count; index++) {
+      byte type = view.getType(index);
+      out.writeObject(view.getName(index));
+      if (type == TYPE_OBJECT || type == TYPE_SUPPLIER) {
+        out.writeByte(TYPE_OBJECT);
+        out.writeObject(view.getValue(index));
+      } else {
+        out.writeByte(type);
+        out.writeLong(view.getPrimitive(index));
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int count = in.readInt();
+    writerId = Thread.currentThread().getId();
+    first = new Chunk(0, Math.max(count, INITIAL_CAPACITY));
+    last = first;
+    for (int index = 0; index < count; index++) {
+      String name = (String) in.readObject();
+      byte type = in.readByte();
+      if (type == TYPE_OBJECT) {
+        add(name, in.readObject());
+      } else {
+        addPrimitive(name, type, in.readLong());
+      }
+    }
+  }
+
+  /**
+   * Chunk of snapshots [start, end) of one log.
+   */
+
+  private static final class Chunk {
+
+    final int start;
+
+    final int end;
+
+    final String[] names;
+
+    final byte[] types;
+
+    final long[] primitives;
+
+    final Object[] objects;
+
+    /**
+     * The next chunk, written by the writer thread before publishing its first snapshot.
+     */
+
+    Chunk next = null;
+
+    Chunk(int start, int capacity) {
+      this.start = start;
+      this.end = start + capacity;
+      names = new String[capacity];
+      types = new byte[capacity];
+      primitives = new long[capacity];
+      objects = new Object[capacity];
+    }
+  }
+
+}
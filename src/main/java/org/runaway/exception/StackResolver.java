@@ -0,0 +1,216 @@
+package org.runaway.exception;
+
+import java.util.Arrays;
+
+/**
+ * StackResolver finds stack frames of the current thread.
+ *
+ * <p>This is Java 8 implementation based on Throwable stack trace, so the complete stack
+ * is materialized as StackTraceElement[] on every call.
+ * Java 9+ runtimes load the StackWalker based implementation of this same class
+ * from META-INF/versions/9 of the multi-release jar.
+ */
+
+final class StackResolver {
+
+  /**
+   * Frame number returned when we failed to determine it.
+   */
+
+  static final int FRAME_UNDEFINED = -1;
+
+
+  /**
+   * Number of caller frames compared to find current frame in exception stack trace.
+   */
+
+  private static final int CALLERS_MATCHED = 2;
+
+  private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+
+  private StackResolver() {
+  }
+
+  /**
+   * Determine current stack frame number (in reverse order, [0] is the program start frame)
+   * of the first frame after and different from the frames of specified class.
+   * @param className class name or its case sensitive suffix, e.g. ".RunawayException"
+   * @return frame number or FRAME_UNDEFINED.
+   */
+
+  static int currentFrame(String className) {
+    StackTraceElement[] stack = new Throwable().getStackTrace();
+    int currentFrame = stack.length;
+    boolean foundClass = false; //-- class to skip
+
+    for (StackTraceElement frame: stack) {
+      --currentFrame;
+
+      if (frame.getClassName().endsWith(className)) {
+        foundClass = true;
+        continue;
+      }
+
+      if (!foundClass) {
+        continue;
+      }
+
+      // the first frame after and different from specified class
+      return currentFrame;
+    }
+
+    return FRAME_UNDEFINED;
+  }
+
+  /**
+   * Find index of current frame in the specified stack trace, which should share
+   * the older frames with the current stack.
+   * Current frame is the first frame after and different from the frames of specified class,
+   * it matches stack trace element with the same class and method followed by the same
+   * caller frames (class, method, line), so stack trace truncated by capture depth
+   * is matched as well.
+   * @param className class name or its case sensitive suffix, e.g. ".RunawayException"
+   * @param stack stack trace to search, [0] is the most recent frame.
+   * @return index in stack or FRAME_UNDEFINED.
+   */
+
+  static int frameIndex(String className, StackTraceElement[] stack) {
+    StackTraceElement[] current = new Throwable().getStackTrace();
+    int currentIndex = 0;
+    boolean foundClass = false; //-- class to skip
+
+    for (; currentIndex < current.length; currentIndex++) {
+      if (current[currentIndex].getClassName().endsWith(className)) {
+        foundClass = true;
+      } else if (foundClass) {
+        break;
+      }
+    }
+
+    if (currentIndex == current.length) {
+      return FRAME_UNDEFINED;
+    }
+
+    int callerCount = Math.min(CALLERS_MATCHED, current.length - currentIndex - 1);
+    for (int index = 0; index < stack.length; index++) {
+      if (isSameFrame(stack, index, current, currentIndex, callerCount)) {
+        return index;
+      }
+    }
+    return FRAME_UNDEFINED;
+  }
+
+  private static boolean isSameFrame(StackTraceElement[] stack, int index,
+      StackTraceElement[] current, int currentIndex, int callerCount) {
+    if (!isSameMethod(stack[index], current[currentIndex])) {
+      return false;
+    }
+    // current stack ends before CALLERS_MATCHED frames, so should the stack trace,
+    // unless it is truncated even earlier
+    if (callerCount < CALLERS_MATCHED && index + callerCount + 1 < stack.length) {
+      return false;
+    }
+    for (int caller = 1; caller <= callerCount; caller++) {
+      if (index + caller >= stack.length) {
+        // stack trace is truncated by capture depth, match the frames it has
+        return true;
+      }
+      if (!isSameMethod(stack[index + caller], current[currentIndex + caller])
+          || stack[index + caller].getLineNumber()
+              != current[currentIndex + caller].getLineNumber()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSameMethod(StackTraceElement element, StackTraceElement other) {
+    return element.getMethodName().equals(other.getMethodName())
+        && element.getClassName().equals(other.getClassName());
+  }
+
+  /**
+   * Check if capture() materializes only the frames captured.
+   * Note: it is a method, not a constant, as constants are inlined at compile time
+   * and the caller is compiled against Java 8 implementation.
+   * @return false on Java 8.
+   */
+
+  static boolean capturesLimitedDepth() {
+    return false;
+  }
+
+  /**
+   * Capture the most recent frames of the current stack, skipping the frames of
+   * exception constructors and of RunawayException itself, as Throwable stack trace does
+   * and as Java 9+ implementation does.
+   * Java 8 fills in the complete stack trace and truncates it, so it costs as much
+   * as the complete stack trace, see capturesLimitedDepth().
+   * @param depth max number of frames.
+   * @return captured stack trace, [0] is the most recent frame.
+   */
+
+  static StackTraceElement[] capture(int depth) {
+    StackTraceElement[] stack = new Throwable().getStackTrace();
+    int start = 0;
+    while (start < stack.length && isCaptureFrame(stack[start])) {
+      ++start;
+    }
+    return Arrays.copyOfRange(stack, start, start + Math.min(depth, stack.length - start));
+  }
+
+  private static boolean isCaptureFrame(StackTraceElement frame) {
+    String frameClass = frame.getClassName();
+    return frameClass.equals(StackResolver.class.getName())
+        || frameClass.equals(RunawayException.class.getName())
+        || ("<init>".equals(frame.getMethodName()) && isThrowable(frameClass));
+  }
+
+  /**
+   * Check if class is Throwable, StackTraceElement has class name only on Java 8.
+   * Class is looked up by context class loader, as exception subclass could be an application
+   * class, and then by the loader of this class; it is not initialized.
+   * @param className class name.
+   * @return false if it is not Throwable or it is not found.
+   */
+
+  private static boolean isThrowable(String className) {
+    ClassLoader[] loaders = {
+        Thread.currentThread().getContextClassLoader(), StackResolver.class.getClassLoader()};
+    for (ClassLoader loader: loaders) {
+      try {
+        return Throwable.class.isAssignableFrom(Class.forName(className, false, loader));
+      } catch (ClassNotFoundException | LinkageError e) { /* should not be here */
+        // not visible to this loader, try the next one
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Capture the most recent frames of the current stack, except the frames of skipped packages,
+   * see capturesLimitedDepth() and SubmissionSite.
+   * Java 8 captures no frames, as filling in stack trace on every submit would cost
+   * as much as the complete stack trace.
+   * @param skippedPackages package prefixes of frames to skip, e.g. "java.util.concurrent.".
+   * @param depth max number of frames.
+   * @return no frames.
+   */
+
+  static StackTraceElement[] captureCaller(String[] skippedPackages, int depth) {
+    return NO_FRAMES;
+  }
+
+  /**
+   * Determine throw site - the first frame after constructors of exception classes,
+   * see ThrowSampling.siteKey().
+   * Not supported on Java 8, as filling in stack trace to find it would cost
+   * as much as the stack trace the sampling should avoid.
+   * @return ThrowSampling.SITE_UNDEFINED.
+   */
+
+  static long throwSite() {
+    return ThrowSampling.SITE_UNDEFINED;
+  }
+
+}
@@ -0,0 +1,213 @@
+package org.runaway.exception;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * SubmissionSite is a token of the place a task was submitted to an executor,
+ * recorded by RunawayExecutors wrappers at submit time: the submitting thread and
+ * a few frames of the submitter. While the task runs, the token is the current
+ * submission site of the worker thread, and new RunawayException copies it like
+ * breadcrumbs, so the exception is rendered with the logical async trace:
+ * <pre>
+ *   Submitted by thread 1 at: com.acme.Orders.place[42] &lt;- com.acme.Api.post[17]
+ * </pre>
+ * Tasks submitted by a task link to the submission site of that task, so every hop
+ * is rendered, up to MAX_HOPS of the most recent ones.
+ *
+ * <p>Submitter frames are captured by a limited stack walk (Java 9+), frames of executors,
+ * CompletableFuture and of this package are skipped, frames older than the captured ones
+ * are not walked.
+ * Number of frames could be set by "org.runaway.async.frames" system property (default 2),
+ * 0 records the submitting thread only. Java 8 records the submitting thread only,
+ * as filling in stack trace on every submit would cost as much as a full stack capture.
+ * Submit calls woven by the call site weaver record their call site with no stack walk,
+ * on Java 8 as well, see CallSites.
+ */
+
+final class SubmissionSite implements Serializable {
+  private static final long serialVersionUID = 20030101L;
+
+  /**
+   * Max number of submission sites in the chain, the oldest ones are dropped.
+   */
+
+  static final int MAX_HOPS = 8;
+
+  private static final int FRAMES = Math.max(0, Integer.getInteger("org.runaway.async.frames", 2));
+
+  /**
+   * Package prefixes of frames skipped to find the submitter.
+   */
+
+  private static final String[] SKIPPED_PACKAGES = {
+      "org.runaway.exception.", "java.util.concurrent."};
+
+  private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+
+  /**
+   * Submission site of the task running on the thread, if the task was submitted
+   * through RunawayExecutors. Slot is created by the first wrapped task run on the thread,
+   * other threads have none, so exceptions there pay one ThreadLocal lookup only.
+   */
+
+  private static final ThreadLocal<Slot> SLOTS = new ThreadLocal<>();
+
+  private final long threadId;
+
+  /**
+   * Submitter frames, [0] is the most recent frame. Could be empty but not null.
+   */
+
+  private final StackTraceElement[] frames;
+
+  /**
+   * Submission site of the task which submitted this one, or null.
+   */
+
+  private final SubmissionSite parent;
+
+  /**
+   * Number of submission sites in the chain, this one included.
+   */
+
+  private final int hops;
+
+  private SubmissionSite(long threadId, StackTraceElement[] frames, SubmissionSite parent) {
+    this.threadId = threadId;
+    this.frames = frames;
+    this.parent = parent;
+    this.hops = (parent == null) ? 1 : parent.hops + 1;
+  }
+
+  /**
+   * Record submission site of the current thread, linked to its current submission site.
+   * @return submission site.
+   */
+
+  static SubmissionSite capture() {
+    return link(captureFrames());
+  }
+
+  /**
+   * Record submission site of woven call site (see CallSites), no stack walk is needed.
+   * @param siteClass class name of the call site.
+   * @param siteMethod method name of the call site.
+   * @param siteFile source file name, or null if unknown.
+   * @param siteLine line number, or negative if unknown.
+   * @return submission site with the call site as its only frame.
+   */
+
+  static SubmissionSite at(String siteClass, String siteMethod, String siteFile, int siteLine) {
+    return link(new StackTraceElement[] {
+        new StackTraceElement(siteClass, siteMethod, siteFile, siteLine)});
+  }
+
+  private static SubmissionSite link(StackTraceElement[] frames) {
+    SubmissionSite parent = current();
+    if (parent != null && parent.hops >= MAX_HOPS) {
+      parent = parent.truncate(MAX_HOPS - 1);
+    }
+    return new SubmissionSite(Thread.currentThread().getId(), frames, parent);
+  }
+
+  private static StackTraceElement[] captureFrames() {
+    if (FRAMES == 0 || !StackResolver.capturesLimitedDepth()) {
+      return NO_FRAMES;
+    }
+    return StackResolver.captureCaller(SKIPPED_PACKAGES, FRAMES);
+  }
+
+  /**
+   * Copy the most recent submission sites of the chain.
+   * @param count number of sites to keep.
+   */
+
+  private SubmissionSite truncate(int count) {
+    SubmissionSite kept = (count <= 1 || parent == null) ? null : parent.truncate(count - 1);
+    return new SubmissionSite(threadId, frames, kept);
+  }
+
+  /**
+   * Get submission site of the task running on the current thread.
+   * @return submission site, or null if the thread runs no wrapped task.
+   */
+
+  static SubmissionSite current() {
+    Slot slot = SLOTS.get();
+    return (slot == null) ? null : slot.site;
+  }
+
+  /**
+   * Get slot of the current submission site of the current thread, created if needed.
+   * Task wrapper sets the site before the task runs and restores the previous one after it,
+   * so pooled threads keep no reference to the tasks they ran.
+   * @return slot of the current thread.
+   */
+
+  static Slot slot() {
+    Slot slot = SLOTS.get();
+    if (slot == null) {
+      slot = new Slot();
+      SLOTS.set(slot);
+    }
+    return slot;
+  }
+
+  long getThreadId() {
+    return threadId;
+  }
+
+  /**
+   * Get submitter frames.
+   * @return frames, [0] is the most recent frame, could be empty but not null.
+   */
+
+  StackTraceElement[] getFrames() {
+    return frames;
+  }
+
+  /**
+   * Get submission site of the task which submitted this one.
+   * @return submission site, or null.
+   */
+
+  SubmissionSite getParent() {
+    return parent;
+  }
+
+  /**
+   * Write one line per submission site of the chain, the most recent first.
+   * @param out destination.
+   * @throws IOException if destination fails.
+   */
+
+  void writeTo(Appendable out) throws IOException {
+    for (SubmissionSite site = this; site != null; site = site.parent) {
+      out.append("Submitted by thread ");
+      RenderBuffer.appendNumber(out, site.threadId);
+      for (int index = 0; index < site.frames.length; index++) {
+        out.append((index == 0) ? " at: " : " <- ");
+        StackTraceElement frame = site.frames[index];
+        out.append(frame.getClassName());
+        out.append('.');
+        out.append(frame.getMethodName());
+        out.append('[');
+        RenderBuffer.appendNumber(out, frame.getLineNumber());
+        out.append(']');
+      }
+      out.append('\n');
+    }
+  }
+
+  /**
+   * Current submission site of a thread.
+   */
+
+  static final class Slot {
+
+    SubmissionSite site;
+
+  }
+
+}
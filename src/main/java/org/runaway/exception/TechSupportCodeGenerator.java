@@ -0,0 +1,19 @@
+package org.runaway.exception;
+
+/**
+ * Generator of tech support codes - error ids which are both logged and shown to end user,
+ * see RunawayException.getTechSupportCode().
+ * Generator is called for every new exception, so it should not block nor use locks.
+ */
+
+@FunctionalInterface
+public interface TechSupportCodeGenerator {
+
+  /**
+   * Generate next tech support code.
+   * @return non-negative code, should be unique among recent errors.
+   */
+
+  int nextCode();
+
+}
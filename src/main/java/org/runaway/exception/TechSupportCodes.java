@@ -0,0 +1,76 @@
+package org.runaway.exception;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TechSupportCodes provides tech support codes for new exceptions
+ * using pluggable TechSupportCodeGenerator.
+ *
+ * <p>Default generator is lock-free sequence: each thread takes blocks of sequence numbers
+ * from a shared counter and scrambles them with random per-process offset,
+ * so codes look random to end users but are unique within the process
+ * (until 2^31 codes are generated).
+ */
+
+public final class TechSupportCodes {
+
+  private static volatile TechSupportCodeGenerator generator = new SequenceGenerator();
+
+  private TechSupportCodes() {
+  }
+
+  /**
+   * Set generator of tech support codes for new exceptions.
+   * @param codeGenerator generator, null to use default one.
+   */
+
+  public static void setGenerator(TechSupportCodeGenerator codeGenerator) {
+    generator = (codeGenerator == null) ? new SequenceGenerator() : codeGenerator;
+  }
+
+  /**
+   * Generate tech support code for new exception.
+   * @return non-negative code.
+   */
+
+  static int next() {
+    return generator.nextCode() & Integer.MAX_VALUE;
+  }
+
+  /**
+   * Default generator, see TechSupportCodes.
+   */
+
+  private static final class SequenceGenerator implements TechSupportCodeGenerator {
+
+    /**
+     * Sequence numbers taken by a thread at once.
+     */
+
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Odd multiplier, so scrambling is one-to-one for 31 bit codes.
+     */
+
+    private static final int SCRAMBLE = 0x9E3779B1;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private final int offset = (int) (System.nanoTime() ^ System.identityHashCode(this));
+
+    private final ThreadLocal<int[]> blocks = ThreadLocal.withInitial(() -> new int[2]);
+
+    @Override
+    public int nextCode() {
+      // [0] - next sequence number of the thread, [1] - end of the thread block
+      int[] block = blocks.get();
+      if (block[0] == block[1]) {
+        block[0] = sequence.getAndAdd(BLOCK_SIZE);
+        block[1] = block[0] + BLOCK_SIZE;
+      }
+      return ((block[0]++ * SCRAMBLE) + offset) & Integer.MAX_VALUE;
+    }
+  }
+
+}
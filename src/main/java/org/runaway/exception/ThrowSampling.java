@@ -0,0 +1,185 @@
+package org.runaway.exception;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ThrowSampling tracks how often RunawayExceptions are created at each throw site,
+ * and makes exceptions of hot sites stackless: when a site creates more exceptions per minute
+ * than the threshold, new exceptions do not fill in stack trace, but share the stack trace
+ * of an earlier exception of the same site (exemplar) and are marked as sampled,
+ * see RunawayException.isSampled(). Snapshots are kept as usual.
+ *
+ * <p>Throw site is class, method and line of the code creating the exception,
+ * it is found by StackWalker without filling in stack trace, so sampling works on Java 9+ only.
+ * Exemplar could be called from other callers, so snapshots of frames not found in it
+ * are added to its most recent frame.
+ *
+ * <p>Sampling is disabled by default; threshold could be set by
+ * "org.runaway.sampling.threshold" system property or by setThreshold().
+ */
+
+public final class ThrowSampling {
+
+  /**
+   * Throw site key returned when throw site could not be determined.
+   */
+
+  static final long SITE_UNDEFINED = 0;
+
+  private static final long WINDOW_MILLIS = 60_000;
+
+  /**
+   * Number of sites tracked, power of 2.
+   */
+
+  private static final int CAPACITY = 1024;
+
+  private static final int MAX_PROBES = 8;
+
+  private static volatile int threshold = Integer.getInteger("org.runaway.sampling.threshold", 0);
+
+  private static final AtomicReferenceArray<Site> SITES = new AtomicReferenceArray<>(CAPACITY);
+
+  private ThrowSampling() {
+  }
+
+  /**
+   * Set max number of exceptions per minute created at a throw site with complete stack trace.
+   * @param throwsPerMinute threshold, 0 or less to disable sampling.
+   */
+
+  public static void setThreshold(int throwsPerMinute) {
+    threshold = throwsPerMinute;
+  }
+
+  public static int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Count new exception of the current throw site.
+   * @return exemplar stack trace to use instead of filling in stack trace,
+   *     or null if stack trace should be filled in.
+   */
+
+  static StackTraceElement[] sample() {
+    int limit = threshold;
+    if (limit <= 0) {
+      return null;
+    }
+
+    long key = StackResolver.throwSite();
+    if (key == SITE_UNDEFINED) {
+      return null;
+    }
+
+    Site site = findSite(key, true);
+    if (site == null) {
+      return null;
+    }
+
+    int count = site.tick(System.currentTimeMillis());
+    return (count > limit) ? site.exemplar : null;
+  }
+
+  /**
+   * Keep stack trace of exception with complete stack trace as exemplar of its throw site,
+   * if the site has none yet.
+   * @param stack complete stack trace, [0] is the throw site.
+   */
+
+  static void offerExemplar(StackTraceElement[] stack) {
+    if (threshold <= 0 || stack.length == 0) {
+      return;
+    }
+
+    StackTraceElement top = stack[0];
+    long key = siteKey(top.getClassName(), top.getMethodName(), top.getLineNumber());
+    Site site = findSite(key, false);
+    if (site != null && site.exemplar == null) {
+      site.exemplar = stack;
+    }
+  }
+
+  /**
+   * Calculate throw site key.
+   * @param className class name of the throw site.
+   * @param methodName method name of the throw site.
+   * @param lineNumber line number of the throw site.
+   * @return site key, never SITE_UNDEFINED.
+   */
+
+  static long siteKey(String className, String methodName, int lineNumber) {
+    long hash = className.hashCode();
+    hash = hash * 0x9E3779B97F4A7C15L + methodName.hashCode();
+    hash = hash * 0x9E3779B97F4A7C15L + lineNumber;
+    hash ^= hash >>> 29;
+    return (hash == SITE_UNDEFINED) ? 1 : hash;
+  }
+
+  private static Site findSite(long key, boolean create) {
+    int start = (int) (key ^ (key >>> 32));
+    Site coldest = null;
+    int coldestSlot = -1;
+
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      int slot = (start + probe) & (CAPACITY - 1);
+      Site site = SITES.get(slot);
+      if (site == null) {
+        if (!create) {
+          return null;
+        }
+        Site created = new Site(key);
+        if (SITES.compareAndSet(slot, null, created)) {
+          return created;
+        }
+        site = SITES.get(slot);
+      }
+      if (site.key == key) {
+        return site;
+      }
+      if (coldest == null || site.windowStart.get() < coldest.windowStart.get()) {
+        coldest = site;
+        coldestSlot = slot;
+      }
+    }
+
+    if (!create) {
+      return null;
+    }
+    // table is full around this key, replace the site idle for the longest time
+    Site created = new Site(key);
+    return SITES.compareAndSet(coldestSlot, coldest, created) ? created : null;
+  }
+
+  /**
+   * Throw site counters.
+   */
+
+  private static final class Site {
+    private final long key;
+    private final AtomicLong windowStart = new AtomicLong();
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile StackTraceElement[] exemplar = null;
+
+    Site(long key) {
+      this.key = key;
+    }
+
+    /**
+     * Count one more exception in the current window.
+     * @return number of exceptions in the current window.
+     */
+
+    int tick(long now) {
+      long start = windowStart.get();
+      if (now - start >= WINDOW_MILLIS && windowStart.compareAndSet(start, now)) {
+        count.set(0);
+      }
+      return count.incrementAndGet();
+    }
+  }
+
+}
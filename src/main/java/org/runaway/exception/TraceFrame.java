@@ -1,7 +1,6 @@
 package org.runaway.exception;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -12,7 +11,7 @@ import java.util.List;
  */
 
 class TraceFrame implements Serializable {
-  private static final long serialVersionUID = 20030101L;
+  private static final long serialVersionUID = 20261017L;
 
   /**
    * Stack frame number (used in reverse order - [length-1 .. 0]).
@@ -36,7 +35,7 @@ class TraceFrame implements Serializable {
    * Snapshots - [name x value] pairs of this stack frame.
    */
 
-  private final List<Snapshot> snapshots;
+  private final SnapshotStore snapshots;
 
   /**
    * Constructor.
@@ -54,7 +53,7 @@ class TraceFrame implements Serializable {
 
     this.traceNumber = traceNumber;
     this.stackTraceElement = stackTraceElement;
-    this.snapshots = new ArrayList<>();
+    this.snapshots = new SnapshotStore();
   }
 
   /**
@@ -77,23 +76,20 @@ class TraceFrame implements Serializable {
 
   /**
    * Get snapshots.
-   * @return list of snapshots, never null but could be empty.
+   * @return read-only list of snapshots, never null but could be empty.
    */
 
   public List<Snapshot> getSnapshots() {
-    return snapshots;
+    return snapshots.asList();
   }
 
   /**
-   * Add snapshot if not null.
-   * @param snapshot snapshot to add
+   * Get snapshots store to add or render snapshots without creating Snapshot objects.
+   * @return snapshots store, never null but could be empty.
    */
 
-  public void addSnapshot(Snapshot snapshot) {
-    if (snapshot == null) {
-      return;
-    }
-    snapshots.add(snapshot);
+  SnapshotStore getSnapshotStore() {
+    return snapshots;
   }
 
 }
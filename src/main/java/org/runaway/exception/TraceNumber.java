@@ -33,7 +33,7 @@ class TraceNumber implements Serializable {
 
   /**
    * Determine current stack trace frame number for specified class and the current thread.
-   * Get current stack trace and search for the specified class name,
+   * Walk current stack (see StackResolver) and search for the specified class name,
    * take the first/next frame after the matching class name.
    * For example, if this method is called from some method of the RunawayException
    * we want to find the first trace frame not of the RunawayException.
@@ -47,35 +47,27 @@ class TraceNumber implements Serializable {
   // TODO is it possible to handle recursive calls?
   public static TraceNumber determineCurrentFrame(String className) {
 
-    StackTraceElement[] stack = Thread.currentThread().getStackTrace();
-    int traceLength = stack.length;
-
-    // stack size could be 0
-    if (traceLength == 0) {
+    int frameNumber = StackResolver.currentFrame(className);
+    if (frameNumber == StackResolver.FRAME_UNDEFINED) {
       return TraceNumber.UNDEFINED;
     }
+    return new TraceNumber(frameNumber);
+  }
 
-    int currentFrame = 0;
-    boolean foundClass = false; //-- class to skip
-    currentFrame = traceLength;
-
-    for (StackTraceElement frame: stack) {
-      --currentFrame;
-
-      if (frame.getClassName().endsWith(className)) {
-        foundClass = true;
-        continue;
-      }
-
-      if (!foundClass) {
-        continue;
-      }
+  /**
+   * Determine current stack trace frame number in the specified stack trace,
+   * see StackResolver.frameIndex().
+   * @param className class name or its case sensitive suffix, e.g. ".RunawayException"
+   * @param stack stack trace sharing the older frames with the current stack.
+   * @return current frame number.
+   */
 
-      // the first frame after and different from specified class
-      return new TraceNumber(currentFrame);
+  public static TraceNumber determineCurrentFrame(String className, StackTraceElement[] stack) {
+    int index = StackResolver.frameIndex(className, stack);
+    if (index == StackResolver.FRAME_UNDEFINED) {
+      return TraceNumber.UNDEFINED;
     }
-
-    return TraceNumber.UNDEFINED;
+    return new TraceNumber(stack.length - 1 - index);
   }
 
   /**
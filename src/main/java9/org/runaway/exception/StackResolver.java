@@ -0,0 +1,257 @@
+package org.runaway.exception;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * StackResolver finds stack frames of the current thread.
+ *
+ * <p>This is Java 9+ implementation based on StackWalker: frames are walked lazily
+ * and no StackTraceElement is created.
+ * Reflection frames are shown to keep frame numbers the same as in Throwable stack traces.
+ * Walking the whole stack costs about as much as creating StackTraceElement[],
+ * so frames are found by walking only a few of the most recent frames where possible.
+ */
+
+final class StackResolver {
+
+  /**
+   * Frame number returned when we failed to determine it.
+   */
+
+  static final int FRAME_UNDEFINED = -1;
+
+
+  private static final StackWalker WALKER =
+      StackWalker.getInstance(StackWalker.Option.SHOW_REFLECT_FRAMES);
+
+  private static final StackWalker CLASS_WALKER = StackWalker.getInstance(EnumSet.of(
+      StackWalker.Option.SHOW_REFLECT_FRAMES, StackWalker.Option.RETAIN_CLASS_REFERENCE));
+
+  /**
+   * Number of caller frames compared to find current frame in exception stack trace.
+   */
+
+  private static final int CALLERS_MATCHED = 2;
+
+  private StackResolver() {
+  }
+
+  /**
+   * Find index of current frame in the specified stack trace, which should share
+   * the older frames with the current stack.
+   * Current frame is the first frame after and different from the frames of specified class,
+   * it matches stack trace element with the same class and method followed by the same
+   * caller frames (class, method, line), so only few frames of the current stack are walked.
+   * @param className class name or its case sensitive suffix, e.g. ".RunawayException"
+   * @param stack stack trace to search, [0] is the most recent frame.
+   * @return index in stack or FRAME_UNDEFINED.
+   */
+
+  static int frameIndex(String className, StackTraceElement[] stack) {
+    return WALKER.walk(frames -> matchFrame(frames, className, stack));
+  }
+
+  private static int matchFrame(Stream<StackFrame> frames, String className,
+      StackTraceElement[] stack) {
+    Iterator<StackFrame> iterator = frames.iterator();
+    StackFrame current = null;
+    boolean foundClass = false; //-- class to skip
+
+    while (iterator.hasNext()) {
+      StackFrame frame = iterator.next();
+      if (frame.getClassName().endsWith(className)) {
+        foundClass = true;
+      } else if (foundClass) {
+        current = frame;
+        break;
+      }
+    }
+
+    if (current == null) {
+      return FRAME_UNDEFINED;
+    }
+
+    StackFrame[] callers = new StackFrame[CALLERS_MATCHED];
+    int callerCount = 0;
+    while (callerCount < CALLERS_MATCHED && iterator.hasNext()) {
+      callers[callerCount++] = iterator.next();
+    }
+
+    for (int index = 0; index < stack.length; index++) {
+      if (isSameFrame(stack, index, current, callers, callerCount)) {
+        return index;
+      }
+    }
+    return FRAME_UNDEFINED;
+  }
+
+  private static boolean isSameFrame(StackTraceElement[] stack, int index, StackFrame current,
+      StackFrame[] callers, int callerCount) {
+    if (!isSameMethod(stack[index], current)) {
+      return false;
+    }
+    // current stack ends before CALLERS_MATCHED frames, so should the stack trace,
+    // unless it is truncated even earlier
+    if (callerCount < CALLERS_MATCHED && index + callerCount + 1 < stack.length) {
+      return false;
+    }
+    for (int caller = 0; caller < callerCount; caller++) {
+      int callerIndex = index + 1 + caller;
+      if (callerIndex >= stack.length) {
+        // stack trace is truncated by capture depth, match the frames it has
+        return true;
+      }
+      if (!isSameMethod(stack[callerIndex], callers[caller])
+          || stack[callerIndex].getLineNumber() != callers[caller].getLineNumber()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSameMethod(StackTraceElement element, StackFrame frame) {
+    return element.getMethodName().equals(frame.getMethodName())
+        && element.getClassName().equals(frame.getClassName());
+  }
+
+  /**
+   * Determine current stack frame number (in reverse order, [0] is the program start frame)
+   * of the first frame after and different from the frames of specified class.
+   * Frames below the found one are only counted, never converted to StackTraceElement.
+   * @param className class name or its case sensitive suffix, e.g. ".RunawayException"
+   * @return frame number or FRAME_UNDEFINED.
+   */
+
+  static int currentFrame(String className) {
+    return WALKER.walk(frames -> findFrame(frames, className));
+  }
+
+  private static int findFrame(Stream<StackFrame> frames, String className) {
+    Iterator<StackFrame> iterator = frames.iterator();
+    boolean foundClass = false; //-- class to skip
+
+    while (iterator.hasNext()) {
+      StackFrame frame = iterator.next();
+
+      if (frame.getClassName().endsWith(className)) {
+        foundClass = true;
+        continue;
+      }
+
+      if (!foundClass) {
+        continue;
+      }
+
+      // the first frame after and different from specified class,
+      // its number is the count of frames below it
+      int frameNumber = 0;
+      while (iterator.hasNext()) {
+        iterator.next();
+        ++frameNumber;
+      }
+      return frameNumber;
+    }
+
+    return FRAME_UNDEFINED;
+  }
+
+  /**
+   * Check if capture() materializes only the frames captured.
+   * Note: it is a method, not a constant, as constants are inlined at compile time
+   * and the caller is compiled against Java 8 implementation.
+   * @return true.
+   */
+
+  static boolean capturesLimitedDepth() {
+    return true;
+  }
+
+  /**
+   * Capture the most recent frames of the current stack, skipping the frames of
+   * exception constructors and of RunawayException itself, as Throwable stack trace does.
+   * Older frames are not walked, so no StackTraceElement is created for them.
+   * @param depth max number of frames.
+   * @return captured stack trace, [0] is the most recent frame.
+   */
+
+  static StackTraceElement[] capture(int depth) {
+    return CLASS_WALKER.walk(frames -> frames
+        .dropWhile(StackResolver::isCaptureFrame)
+        .limit(depth)
+        .map(StackFrame::toStackTraceElement)
+        .toArray(StackTraceElement[]::new));
+  }
+
+  private static boolean isCaptureFrame(StackFrame frame) {
+    Class<?> declaringClass = frame.getDeclaringClass();
+    return declaringClass == StackResolver.class
+        || declaringClass == RunawayException.class
+        || ("<init>".equals(frame.getMethodName())
+            && Throwable.class.isAssignableFrom(declaringClass));
+  }
+
+  /**
+   * Capture the most recent frames of the current stack, except the frames of skipped packages,
+   * e.g. the task submitter without executor and CompletableFuture frames, see SubmissionSite.
+   * Only the frames up to the last captured one are walked.
+   * @param skippedPackages package prefixes of frames to skip, e.g. "java.util.concurrent.".
+   * @param depth max number of frames.
+   * @return captured frames, [0] is the most recent frame.
+   */
+
+  static StackTraceElement[] captureCaller(String[] skippedPackages, int depth) {
+    return WALKER.walk(frames -> frames
+        .filter(frame -> !isSkipped(frame.getClassName(), skippedPackages))
+        .limit(depth)
+        .map(StackFrame::toStackTraceElement)
+        .toArray(StackTraceElement[]::new));
+  }
+
+  private static boolean isSkipped(String className, String[] skippedPackages) {
+    for (String skippedPackage: skippedPackages) {
+      if (className.startsWith(skippedPackage)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine throw site - the first frame after constructors of exception classes,
+   * the same frame which is the first one in exception stack trace.
+   * Only the frames above the throw site are walked.
+   * @return throw site key, see ThrowSampling.siteKey(), or ThrowSampling.SITE_UNDEFINED.
+   */
+
+  static long throwSite() {
+    return CLASS_WALKER.walk(StackResolver::findThrowSite);
+  }
+
+  private static long findThrowSite(Stream<StackFrame> frames) {
+    Iterator<StackFrame> iterator = frames.iterator();
+    boolean foundConstructor = false;
+
+    while (iterator.hasNext()) {
+      StackFrame frame = iterator.next();
+
+      if ("<init>".equals(frame.getMethodName())
+          && Throwable.class.isAssignableFrom(frame.getDeclaringClass())) {
+        foundConstructor = true;
+        continue;
+      }
+
+      if (!foundConstructor) {
+        continue;
+      }
+
+      return ThrowSampling.siteKey(frame.getClassName(), frame.getMethodName(),
+          frame.getLineNumber());
+    }
+
+    return ThrowSampling.SITE_UNDEFINED;
+  }
+
+}
@@ -0,0 +1,45 @@
+package org.runaway.example;
+
+import java.sql.SQLException;
+
+import org.runaway.exception.RunawayException;
+
+public class Batch {
+
+  public static void main(String[] args) {
+    long paramA = 54110;
+    String paramB = "my test param";
+
+    try {
+      loadData(paramA, paramB);
+    } catch (RuntimeException e) {
+      RunawayException re = RunawayException.of(e);
+      System.out.println(
+          String.format("Bubbled up exception: [%d] - %s", re.getTechSupportCode(), re));
+    }
+  }
+
+  private static String loadData(long paramA, String paramB) {
+    String data = null;
+    int jj = 13;
+
+    try {
+      jj = 159;
+      if (jj == 159) {
+        throw new SQLException("Bad JDBC connection");
+      }
+      data = "item345";
+      return data;
+    } catch (SQLException e) {
+      // several snapshots of one catch block, the frame is found only once
+      RunawayException re = RunawayException.of(e);
+      throw re.at()
+          .snap("paramA", paramA)
+          .snap("paramB", paramB)
+          .snap("data", data)
+          .snap("jj", jj)
+          .commit();
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+package org.runaway.exception;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Snapshots and stack capture of exceptions with capture depth limited to 2 frames.
+ */
+
+public class CaptureDepthTest {
+
+  @Before
+  public void setUp() {
+    CapturePolicies.setPolicy(new CapturePolicy() {
+      @Override
+      public int getCaptureDepth() {
+        return 2;
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    CapturePolicies.setPolicy(null);
+  }
+
+  @Test
+  public void snapshotOfCutOffFrameIsNotCaptured() {
+    RunawayException exception = level1();
+    exception.snap("test", 1);
+
+    String rendered = exception.toString();
+    assertTrue(rendered, rendered.contains("level2["));
+    assertTrue(rendered, rendered.contains("level1["));
+    assertFalse(rendered, rendered.contains("snapshotOfCutOffFrameIsNotCaptured["));
+    assertTrue(rendered, rendered.contains("\nFrames not captured: [test=1]\n"));
+    assertTrue(rendered, rendered.matches("(?s).*\\.level2\\[\\d+\\]: \\[level2=2\\]\n.*"));
+    assertEquals(rendered.indexOf("[level2=2]"), rendered.lastIndexOf("[level2="));
+  }
+
+  @Test
+  public void snapshotOfCutOffFrameIsNotCapturedByBatch() {
+    RunawayException exception = level1();
+    exception.at().snap("test", 1).snap("name", "value").commit();
+
+    assertTrue(exception.toString().contains("\nFrames not captured: [test=1][name=value]\n"));
+  }
+
+  @Test
+  public void snapshotsOfSeveralCutOffFramesAreNotCaptured() {
+    RunawayException exception = level1();
+    exception.snap("more", 3);
+    otherMethod(exception);
+
+    String rendered = exception.toString();
+    assertTrue(rendered, rendered.contains("\nFrames not captured: [more=3][other=4]\n"));
+  }
+
+  @Test
+  public void uncapturedSnapshotsAreEncoded() throws IOException {
+    RunawayException exception = level1();
+    exception.snap("test", 1);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonEncoder.encode(exception, out);
+    String json = out.toString("UTF-8");
+    assertTrue(json, json.contains("\"uncaptured\":[{\"name\":\"test\",\"value\":1}]"));
+  }
+
+  @Test
+  public void captureKeepsApplicationConstructors() {
+    StackTraceElement[] stack = new Creator().stack;
+
+    assertEquals(2, stack.length);
+    assertEquals(Creator.class.getName(), stack[0].getClassName());
+    assertEquals("<init>", stack[0].getMethodName());
+    assertEquals("captureKeepsApplicationConstructors", stack[1].getMethodName());
+  }
+
+  @Test
+  public void captureSkipsExceptionConstructors() {
+    StackTraceElement[] stack = new CapturingException().stack;
+
+    assertEquals("captureSkipsExceptionConstructors", stack[0].getMethodName());
+  }
+
+  private static RunawayException level1() {
+    return level2();
+  }
+
+  private static RunawayException level2() {
+    RunawayException exception = new RunawayException("depth");
+    exception.snap("level2", 2);
+    return exception;
+  }
+
+  private static void otherMethod(RunawayException exception) {
+    exception.snap("other", 4);
+  }
+
+  /**
+   * Application class capturing the stack in its constructor.
+   */
+
+  static final class Creator {
+    private final StackTraceElement[] stack = StackResolver.capture(2);
+  }
+
+  /**
+   * Exception capturing the stack in its constructor, like RunawayException does.
+   */
+
+  static final class CapturingException extends RuntimeException {
+    private static final long serialVersionUID = 20030101L;
+
+    private final StackTraceElement[] stack = StackResolver.capture(2);
+  }
+
+}
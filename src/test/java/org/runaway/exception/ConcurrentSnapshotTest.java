@@ -0,0 +1,152 @@
+package org.runaway.exception;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Snapshots added to one exception by several threads while another thread renders
+ * and serializes it, see SnapshotStore logs and the rendering kept by toString().
+ */
+
+public class ConcurrentSnapshotTest {
+
+  private static final int ROUNDS = 20;
+
+  private static final int WRITERS = 4;
+
+  private static final int SNAPSHOTS = 500;
+
+  private static final Pattern SNAPSHOT = Pattern.compile("\\[(w\\d+s\\d+)=([^\\]]*)\\]");
+
+  @Before
+  public void setUp() {
+    CapturePolicies.setPolicy(new CapturePolicy() {
+      @Override
+      public int getRenderDepth() {
+        // snapshots of other threads could be at any frame
+        return 0;
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    CapturePolicies.setPolicy(null);
+  }
+
+  @Test
+  public void everySnapshotIsKeptOnce() throws Exception {
+    for (int round = 0; round < ROUNDS; round++) {
+      RunawayException exception = new RunawayException("concurrent");
+      runConcurrently(exception);
+
+      assertSnapshots(exception.toString());
+      assertSnapshots(deserialize(serialize(exception)).toString());
+    }
+  }
+
+  /**
+   * Writers snap into the exception, the reader renders and serializes it until they finish.
+   */
+
+  private static void runConcurrently(RunawayException exception) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(WRITERS);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Thread[] writers = new Thread[WRITERS];
+    for (int writer = 0; writer < WRITERS; writer++) {
+      int id = writer;
+      writers[writer] = new Thread(() -> {
+        try {
+          start.await();
+          for (int snapshot = 0; snapshot < SNAPSHOTS; snapshot++) {
+            String name = "w" + id + "s" + snapshot;
+            if (snapshot % 2 == 0) {
+              exception.snap(name, snapshot);
+            } else {
+              exception.snap(name, name);
+            }
+            if (snapshot % 64 == 0) {
+              Thread.yield();
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          done.countDown();
+        }
+      });
+      writers[writer].start();
+    }
+
+    Thread reader = new Thread(() -> {
+      try {
+        start.await();
+        while (done.getCount() > 0) {
+          exception.toString();
+          serialize(exception);
+        }
+      } catch (Throwable e) {
+        failure.compareAndSet(null, e);
+      }
+    });
+    reader.start();
+
+    start.countDown();
+    for (Thread writer: writers) {
+      writer.join();
+    }
+    reader.join();
+    assertNull(String.valueOf(failure.get()), failure.get());
+  }
+
+  private static void assertSnapshots(String rendered) {
+    Map<String, String> values = new HashMap<>();
+    Matcher matcher = SNAPSHOT.matcher(rendered);
+    while (matcher.find()) {
+      assertNull("Repeated " + matcher.group(1),
+          values.put(matcher.group(1), matcher.group(2)));
+    }
+
+    assertEquals(WRITERS * SNAPSHOTS, values.size());
+    for (int writer = 0; writer < WRITERS; writer++) {
+      for (int snapshot = 0; snapshot < SNAPSHOTS; snapshot++) {
+        String name = "w" + writer + "s" + snapshot;
+        String value = (snapshot % 2 == 0) ? Integer.toString(snapshot) : name;
+        assertEquals(name, value, values.get(name));
+      }
+    }
+  }
+
+  private static byte[] serialize(RunawayException exception) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(exception);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static RunawayException deserialize(byte[] bytes)
+      throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (RunawayException) in.readObject();
+    }
+  }
+
+}
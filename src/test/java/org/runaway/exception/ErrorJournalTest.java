@@ -0,0 +1,207 @@
+package org.runaway.exception;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records appended to ErrorJournal and read back, torn and corrupted records included.
+ */
+
+public class ErrorJournalTest {
+
+  private static final int CAPACITY = 1 << 16;
+
+  /**
+   * File header and record header sizes, see ErrorJournal.
+   */
+
+  private static final int FILE_HEADER_SIZE = 32;
+
+  private static final int RECORD_HEADER_SIZE = 20;
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("journal", ".bin");
+    Files.delete(file);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Breadcrumbs.clear();
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void appendedRecordIsRead() throws IOException {
+    RunawayException exception = new RunawayException("journaled");
+    exception.snap("order", 42);
+    exception.snap("name", "value");
+
+    try (ErrorJournal journal = ErrorJournal.open(file, CAPACITY)) {
+      assertTrue(journal.append(exception));
+    }
+
+    List<JournalRecord> records = ErrorJournal.read(file);
+    assertEquals(1, records.size());
+    JournalRecord record = records.get(0);
+    assertEquals(0, record.getPosition());
+    assertEquals(exception.getTechSupportCode(), record.getTechSupportCode());
+    assertEquals(exception.getThreadId(), record.getThreadId());
+    assertEquals(exception.getFingerprint(), record.getFingerprint());
+    assertEquals(RunawayException.class.getName(), record.getClassName());
+    assertEquals(exception.getMessage(), record.getMessage());
+    assertEquals(exception.getStackFrames().size(), record.getStackFrames().size());
+    assertNull(record.getCauseBug());
+
+    String rendered = exception.toString();
+    assertEquals(rendered, record.toString().substring(record.toString().indexOf(' ') + 1));
+    assertTrue(rendered, rendered.contains("[order=42][name=value]"));
+  }
+
+  @Test
+  public void causeBugsBreadcrumbsAndSubmissionSiteAreRead() throws IOException {
+    Breadcrumbs.crumb("user", "alice");
+    RunawayException[] bug = new RunawayException[1];
+    RunawayExecutors.wrapTask(() -> {
+      bug[0] = new RunawayException("inner");
+      bug[0].snap("inner", 1);
+    }).run();
+    Breadcrumbs.clear();
+    RunawayException exception = new RunawayException("outer");
+    exception.initCause(bug[0]);
+
+    try (ErrorJournal journal = ErrorJournal.open(file, CAPACITY)) {
+      assertTrue(journal.append(exception));
+    }
+
+    JournalRecord record = ErrorJournal.read(file).get(0);
+    JournalRecord causeBug = record.getCauseBug();
+    assertNotNull(causeBug);
+    assertNull(causeBug.getCauseBug());
+    assertEquals(bug[0].getTechSupportCode(), causeBug.getTechSupportCode());
+    assertEquals(bug[0].getMessage(), causeBug.getMessage());
+    assertEquals(bug[0].getStackFrames().size(), causeBug.getStackFrames().size());
+
+    String rendered = record.toString();
+    assertTrue(rendered, rendered.contains("\nCause bug: " + RunawayException.class.getName()
+        + ": " + bug[0].getMessage() + "\nBreadcrumbs: [user=alice]\nSubmitted by thread "));
+    assertTrue(rendered, rendered.contains("[inner=1]"));
+    assertEquals(rendered.indexOf("Breadcrumbs:"), rendered.lastIndexOf("Breadcrumbs:"));
+  }
+
+  @Test
+  public void reopenedJournalIsContinued() throws IOException {
+    try (ErrorJournal journal = ErrorJournal.open(file, CAPACITY)) {
+      assertTrue(journal.append(new RunawayException("first")));
+    }
+    try (ErrorJournal journal = ErrorJournal.open(file, CAPACITY)) {
+      assertTrue(journal.append(new RunawayException("second")));
+    }
+
+    List<JournalRecord> records = ErrorJournal.read(file);
+    assertEquals(2, records.size());
+    assertTrue(records.get(0).getMessage().contains("first"));
+    assertTrue(records.get(1).getMessage().contains("second"));
+    assertTrue(records.get(0).getPosition() < records.get(1).getPosition());
+  }
+
+  @Test
+  public void overwrittenRecordsAreDropped() throws IOException {
+    try (ErrorJournal journal = ErrorJournal.open(file, 4096)) {
+      for (int index = 0; index < 100; index++) {
+        assertTrue(journal.append(new RunawayException("record " + index)));
+      }
+    }
+
+    List<JournalRecord> records = ErrorJournal.read(file);
+    assertTrue(records.size() > 0 && records.size() < 100);
+    JournalRecord last = records.get(records.size() - 1);
+    assertTrue(last.getMessage(), last.getMessage().contains("record 99."));
+    for (int index = 1; index < records.size(); index++) {
+      assertTrue(records.get(index - 1).getPosition() < records.get(index).getPosition());
+    }
+  }
+
+  @Test
+  public void corruptedRecordIsSkipped() throws IOException {
+    List<JournalRecord> records = appendThree();
+
+    // flip a payload byte of the middle record, so its CRC does not match
+    long offset = FILE_HEADER_SIZE + records.get(1).getPosition() + RECORD_HEADER_SIZE + 12;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer data = ByteBuffer.allocate(1);
+      channel.read(data, offset);
+      data.put(0, (byte) ~data.get(0));
+      data.rewind();
+      channel.write(data, offset);
+    }
+
+    assertMessages(ErrorJournal.read(file), "first", "third");
+  }
+
+  @Test
+  public void tornRecordIsSkipped() throws IOException {
+    List<JournalRecord> records = appendThree();
+
+    // crash in the middle of the last record: its header is written, its payload is not
+    JournalRecord last = records.get(2);
+    long offset = FILE_HEADER_SIZE + last.getPosition() + RECORD_HEADER_SIZE;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(last.getPayloadLength() / 2),
+          offset + last.getPayloadLength() / 2);
+    }
+
+    assertMessages(ErrorJournal.read(file), "first", "second");
+
+    // journal continues after the last valid record, overwriting the torn one
+    try (ErrorJournal journal = ErrorJournal.open(file, CAPACITY)) {
+      assertTrue(journal.append(new RunawayException("fourth")));
+    }
+    records = ErrorJournal.read(file);
+    assertMessages(records, "first", "second", "fourth");
+    assertEquals(last.getPosition(), records.get(2).getPosition());
+  }
+
+  @Test(expected = IOException.class)
+  public void otherFileIsNotRead() throws IOException {
+    Files.write(file, new byte[4096]);
+    ErrorJournal.read(file);
+  }
+
+  private List<JournalRecord> appendThree() throws IOException {
+    try (ErrorJournal journal = ErrorJournal.open(file, CAPACITY)) {
+      assertTrue(journal.append(new RunawayException("first")));
+      assertTrue(journal.append(new RunawayException("second")));
+      assertTrue(journal.append(new RunawayException("third")));
+    }
+    List<JournalRecord> records = ErrorJournal.read(file);
+    assertMessages(records, "first", "second", "third");
+    return records;
+  }
+
+  private static void assertMessages(List<JournalRecord> records, String... messages) {
+    assertEquals(records.toString(), messages.length, records.size());
+    for (int index = 0; index < messages.length; index++) {
+      String message = records.get(index).getMessage();
+      assertTrue(message, message.contains(" " + messages[index] + ". "));
+    }
+  }
+
+}
@@ -0,0 +1,351 @@
+package org.runaway.exception;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Stack frames and snapshots written and read by FrameCodec, truncated and corrupted data
+ * included: it must fail with IOException, not with runtime exception or error.
+ */
+
+public class FrameCodecTest {
+
+  private static final StackTraceElement[] ELEMENTS = {
+      new StackTraceElement("com.acme.Orders", "place", "Orders.java", 42),
+      new StackTraceElement("com.acme.Orders", "validate", "Orders.java", 17),
+      new StackTraceElement("com.acme.Native", "call", null, -2),
+      new StackTraceElement("com.acme.Api", "post", "Api.java", -1),
+      new StackTraceElement("com.acme.Main", "main", "Main.java", 3)};
+
+  @Test
+  public void ownStackIsNotWritten() throws IOException {
+    StackTraceElement[] ownStack = ELEMENTS.clone();
+    byte[] ownBytes = write(ownStack, true, 0, null);
+    byte[] foreignBytes = write(ownStack, false, 0, null);
+    assertTrue(ownBytes.length < foreignBytes.length);
+
+    FrameCodec frames = read(ownBytes, ownStack);
+    assertSame(ownStack, frames.elements);
+    assertEquals(0, frames.topFrame);
+    assertNull(frames.snappedFrames);
+  }
+
+  @Test
+  public void foreignStackIsRead() throws IOException {
+    FrameCodec frames = read(write(ELEMENTS, false, 1, null), null);
+    assertArrayEquals(ELEMENTS, frames.elements);
+    assertEquals(1, frames.topFrame);
+    assertNull(frames.snappedFrames);
+  }
+
+  @Test
+  public void emptyStackIsRead() throws IOException {
+    FrameCodec frames = read(write(new StackTraceElement[0], false, 0, null), null);
+    assertEquals(0, frames.elements.length);
+    assertNull(frames.snappedFrames);
+  }
+
+  @Test
+  public void snappedFramesAreRead() throws IOException {
+    AtomicInteger supplied = new AtomicInteger();
+    TraceFrame[] snappedFrames = new TraceFrame[ELEMENTS.length];
+    snappedFrames[1] = frame(1);
+    SnapshotStore snapshots = snappedFrames[1].getSnapshotStore();
+    snapshots.add("object", Arrays.asList(1, 2));
+    snapshots.add("null", null);
+    snapshots.add(null, "no name");
+    snapshots.addSupplied("lazy", () -> {
+      supplied.incrementAndGet();
+      return "supplied";
+    });
+    snapshots.addPrimitive("boolean", SnapshotStore.TYPE_BOOLEAN, 1);
+    snapshots.addPrimitive("char", SnapshotStore.TYPE_CHAR, 'x');
+    snapshots.addPrimitive("byte", SnapshotStore.TYPE_BYTE, -1);
+    snapshots.addPrimitive("short", SnapshotStore.TYPE_SHORT, Short.MIN_VALUE);
+    snapshots.addPrimitive("int", SnapshotStore.TYPE_INT, Integer.MIN_VALUE);
+    snapshots.addPrimitive("long", SnapshotStore.TYPE_LONG, Long.MAX_VALUE);
+    snapshots.addPrimitive("float", SnapshotStore.TYPE_FLOAT, Float.floatToRawIntBits(-1.5f));
+    snapshots.addPrimitive("double", SnapshotStore.TYPE_DOUBLE,
+        Double.doubleToRawLongBits(Double.NaN));
+    snappedFrames[3] = frame(3);
+    snappedFrames[3].getSnapshotStore().add("object", "again");
+    // frame with no snapshots is not written
+    snappedFrames[4] = frame(4);
+
+    byte[] bytes = write(ELEMENTS, false, 0, snappedFrames);
+    // lazy value is supplied once, when it is written
+    assertEquals(1, supplied.get());
+    FrameCodec frames = read(bytes, null);
+
+    assertArrayEquals(ELEMENTS, frames.elements);
+    assertNull(frames.snappedFrames[0]);
+    assertNull(frames.snappedFrames[2]);
+    assertNull(frames.snappedFrames[4]);
+    assertEquals(snappedFrames[1].getTraceNumber().getValue(),
+        frames.snappedFrames[1].getTraceNumber().getValue());
+    assertEquals(render(ELEMENTS, 0, snappedFrames), render(frames.elements, 0,
+        frames.snappedFrames));
+    assertTrue(render(frames.elements, 0, frames.snappedFrames).contains(
+        ": [object=[1, 2]][null=null][null=no name][lazy=supplied][boolean=true][char=x]"
+        + "[byte=-1][short=-32768][int=-2147483648][long=9223372036854775807][float=-1.5]"
+        + "[double=NaN]\n"));
+  }
+
+  @Test
+  public void exceptionIsSerialized() throws Exception {
+    RunawayException exception = new RunawayException("own");
+    exception.snap("order", 42);
+    exception.snap("lazy", () -> "supplied");
+    RunawayException copy = deserialize(serialize(exception));
+
+    assertEquals(exception.toString(), copy.toString());
+    assertEquals(exception.getStackFrames().size(), copy.getStackFrames().size());
+  }
+
+  @Test
+  public void exceptionOfForeignStackIsSerialized() throws Exception {
+    RunawayException exception = RunawayException.of(new IllegalStateException("foreign"));
+    exception.snap("order", 42);
+    RunawayException copy = deserialize(serialize(exception));
+
+    assertEquals(exception.toString(), copy.toString());
+    assertTrue(copy.toString(), copy.toString().contains("[order=42]"));
+  }
+
+  @Test
+  public void truncatedDataFails() throws IOException {
+    byte[] bytes = write(ELEMENTS, false, 0, snappedFrames());
+    for (int length = 0; length < bytes.length; length++) {
+      try {
+        read(Arrays.copyOf(bytes, length), null);
+        fail("Truncated to " + length + " of " + bytes.length + " bytes is read");
+      } catch (EOFException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void corruptedDataFailsWithIoException() throws IOException {
+    byte[] bytes = write(ELEMENTS, false, 0, snappedFrames());
+    Random random = new Random(20261017L);
+    for (int attempt = 0; attempt < 10000; attempt++) {
+      byte[] corrupted = bytes.clone();
+      for (int flip = random.nextInt(3); flip >= 0; flip--) {
+        corrupted[random.nextInt(corrupted.length)] = (byte) random.nextInt();
+      }
+      try {
+        read(corrupted, ELEMENTS);
+      } catch (IOException e) {
+        // expected, unless corrupted data is still valid
+      } catch (RuntimeException | Error e) {
+        throw new AssertionError("Attempt " + attempt + ": " + Arrays.toString(corrupted), e);
+      }
+    }
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void unknownVersionFails() throws IOException {
+    read(new byte[] {2, 0, 0, 0, 0}, null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void malformedCountFails() throws IOException {
+    read(new byte[] {1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0},
+        null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void negativeCountFails() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    header(out, 0);
+    FrameCodec.writeVarInt(out, -1);
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = EOFException.class)
+  public void hugeCountFailsAtEndOfData() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    header(out, 0);
+    FrameCodec.writeVarInt(out, Integer.MAX_VALUE);
+    FrameCodec.writeString(out, "only one");
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = EOFException.class)
+  public void hugeStringFailsAtEndOfData() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    header(out, 0);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, Integer.MAX_VALUE);
+    out.write(new byte[1000]);
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void nullInStringTableFails() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    header(out, 0);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeString(out, null);
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void stringIndexOutOfTableFails() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = stack(bytes, 0);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, 0);
+    FrameCodec.writeVarInt(out, 2);
+    FrameCodec.writeVarInt(out, 0);
+    FrameCodec.writeVarLong(out, 1);
+    FrameCodec.writeVarInt(out, 0);
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void topFrameOutOfStackFails() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = stack(bytes, 2);
+    oneElement(out);
+    FrameCodec.writeVarInt(out, 0);
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void snapshotFrameOutOfStackFails() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = stack(bytes, 0);
+    oneElement(out);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, 0);
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void unknownSnapshotTypeFails() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = stack(bytes, 0);
+    oneElement(out);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, 0);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, 0);
+    out.writeByte(SnapshotStore.TYPE_SUPPLIER);
+    FrameCodec.writeString(out, "supplier is written as object");
+    read(bytes.toByteArray(), null);
+  }
+
+  @Test(expected = InvalidObjectException.class)
+  public void missingOwnStackFails() throws IOException {
+    read(write(ELEMENTS, true, 0, null), null);
+  }
+
+  private static TraceFrame[] snappedFrames() {
+    TraceFrame[] snappedFrames = new TraceFrame[ELEMENTS.length];
+    snappedFrames[0] = frame(0);
+    snappedFrames[0].getSnapshotStore().add("name", "value");
+    snappedFrames[0].getSnapshotStore().addPrimitive("int", SnapshotStore.TYPE_INT, 7);
+    snappedFrames[2] = frame(2);
+    snappedFrames[2].getSnapshotStore().addPrimitive("double", SnapshotStore.TYPE_DOUBLE,
+        Double.doubleToRawLongBits(0.5));
+    return snappedFrames;
+  }
+
+  private static TraceFrame frame(int index) {
+    return new TraceFrame(new TraceNumber(ELEMENTS.length - 1 - index), ELEMENTS[index]);
+  }
+
+  /**
+   * Write version, foreign stack flag and top frame.
+   */
+
+  private static void header(DataOutputStream out, int topFrame) throws IOException {
+    FrameCodec.writeVarInt(out, 1);
+    out.writeBoolean(false);
+    FrameCodec.writeVarInt(out, topFrame);
+  }
+
+  /**
+   * Write header and string table of class and method name.
+   */
+
+  private static DataOutputStream stack(ByteArrayOutputStream bytes, int topFrame)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(bytes);
+    header(out, topFrame);
+    FrameCodec.writeVarInt(out, 2);
+    FrameCodec.writeString(out, "com.acme.Orders");
+    FrameCodec.writeString(out, "place");
+    return out;
+  }
+
+  private static void oneElement(DataOutputStream out) throws IOException {
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, 0);
+    FrameCodec.writeVarInt(out, 1);
+    FrameCodec.writeVarInt(out, 0);
+    FrameCodec.writeVarLong(out, 42);
+  }
+
+  private static byte[] write(StackTraceElement[] elements, boolean ownStack, int topFrame,
+      TraceFrame[] snappedFrames) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    FrameCodec.write(out, elements, ownStack, topFrame, snappedFrames);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static FrameCodec read(byte[] bytes, StackTraceElement[] ownStack)
+      throws IOException {
+    return FrameCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)), ownStack);
+  }
+
+  private static String render(StackTraceElement[] elements, int topFrame,
+      TraceFrame[] snappedFrames) throws IOException {
+    StringBuilder builder = new StringBuilder();
+    RunawayException.writeFrames(builder, elements, topFrame, elements.length, snappedFrames);
+    return builder.toString();
+  }
+
+  private static byte[] serialize(RunawayException exception) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(exception);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static RunawayException deserialize(byte[] bytes)
+      throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (RunawayException) in.readObject();
+    }
+  }
+
+}
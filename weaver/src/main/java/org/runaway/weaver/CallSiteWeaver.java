@@ -0,0 +1,318 @@
+package org.runaway.weaver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * CallSiteWeaver rewrites snap(), snapNow() and at() calls of RunawayException
+ * in compiled classes into calls of CallSites with call site class and method
+ * as constants, e.g.
+ * <pre>
+ *   re.snap("id", id);  // in method Order.check()
+ * </pre>
+ * becomes
+ * <pre>
+ *   CallSites.snap(re, "id", id, "com.acme.Order", "check");
+ * </pre>
+ * so the frame of the snapshot is found by lookup instead of a stack walk.
+ *
+ * <p>Calls of Executor.execute(), ExecutorService.submit() and of RunawayExecutors are rewritten
+ * the same way, with source file and line of the call, e.g.
+ * <pre>
+ *   pool.submit(task);  // line 42 of Order.java
+ * </pre>
+ * becomes
+ * <pre>
+ *   CallSites.submit(pool, task, "com.acme.Order", "check", "Order.java", 42);
+ * </pre>
+ * so the task submitted to executor wrapped by RunawayExecutors gets its submission site
+ * with no stack walk. Other executors are called as they were.
+ *
+ * <p>Class files are rewritten in place, only the ones with calls to rewrite.
+ * Weaving again is harmless: woven classes have no calls left to rewrite.
+ *
+ * <p>Only calls through RunawayException, Executor and ExecutorService types are rewritten,
+ * calls through their subtypes are left as they are. Classes of org.runaway.exception are skipped.
+ * Rewritten methods of RunawayException are final, so no subclass override is bypassed;
+ * CallSites counterparts of executor calls call the executor itself unless it is wrapped
+ * by RunawayExecutors.
+ *
+ * <p>Usage: {@code java -jar runaway-weaver.jar <classes directory>...},
+ * normally run by exec-maven-plugin at process-classes phase.
+ */
+
+public final class CallSiteWeaver {
+
+  private static final String EXCEPTION = "org/runaway/exception/RunawayException";
+
+  private static final String CALL_SITES = "org/runaway/exception/CallSites";
+
+  private static final String EXECUTORS = "org/runaway/exception/RunawayExecutors";
+
+  private static final String EXECUTOR = "java/util/concurrent/Executor";
+
+  private static final String EXECUTOR_SERVICE = "java/util/concurrent/ExecutorService";
+
+  private static final String SKIPPED_PACKAGE = "org/runaway/exception/";
+
+  /**
+   * Call site arguments of submit calls: class, method, source file and line.
+   */
+
+  private static final String SUBMIT_SITE =
+      "Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I";
+
+  /**
+   * Methods rewritten, as name + descriptor, each one has its CallSites counterpart.
+   */
+
+  static final Set<String> WOVEN = new HashSet<>(Arrays.asList(
+      "snap(Ljava/lang/String;Ljava/lang/Object;)V",
+      "snap(Ljava/lang/String;Ljava/util/function/Supplier;)V",
+      "snap(Ljava/lang/String;I)V",
+      "snap(Ljava/lang/String;J)V",
+      "snap(Ljava/lang/String;Z)V",
+      "snap(Ljava/lang/String;D)V",
+      "snap(Ljava/lang/String;F)V",
+      "snap(Ljava/lang/String;C)V",
+      "snap(Ljava/lang/String;S)V",
+      "snap(Ljava/lang/String;B)V",
+      "snapNow(Ljava/lang/String;Ljava/lang/Object;)V",
+      "at()Lorg/runaway/exception/SnapshotBatch;"));
+
+  /**
+   * Submit calls rewritten, as owner.name + descriptor, mapped to the receiver type
+   * of their CallSites counterpart, empty for static methods.
+   */
+
+  private static final Map<String, String> SUBMITS = createSubmits();
+
+  private int wovenClasses = 0;
+
+  private int wovenCalls = 0;
+
+  /**
+   * Weave all class files of the directories.
+   * @param args classes directories, e.g. target/classes.
+   * @throws IOException if class file could not be read or written.
+   */
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: java -jar runaway-weaver.jar <classes directory>...");
+      System.exit(2);
+    }
+
+    CallSiteWeaver weaver = new CallSiteWeaver();
+    for (String directory : args) {
+      weaver.weaveDirectory(Paths.get(directory));
+    }
+    System.out.println("Woven " + weaver.wovenCalls + " call sites in "
+        + weaver.wovenClasses + " classes");
+  }
+
+  /**
+   * Weave all class files of the directory and its subdirectories.
+   * @param directory classes directory, skipped if it does not exist.
+   * @throws IOException if class file could not be read or written.
+   */
+
+  void weaveDirectory(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+
+    List<Path> classFiles;
+    try (Stream<Path> files = Files.walk(directory)) {
+      classFiles = files.filter(file -> file.toString().endsWith(".class"))
+          .collect(Collectors.toList());
+    }
+    for (Path classFile : classFiles) {
+      byte[] woven = weave(Files.readAllBytes(classFile));
+      if (woven != null) {
+        Files.write(classFile, woven);
+      }
+    }
+  }
+
+  /**
+   * Weave class.
+   * @param classBytes class file.
+   * @return woven class file, or null if the class has no calls to rewrite.
+   */
+
+  byte[] weave(byte[] classBytes) {
+    ClassReader reader = new ClassReader(classBytes);
+    if (reader.getClassName().startsWith(SKIPPED_PACKAGE)) {
+      return null;
+    }
+
+    // max stack is recomputed, as call site constants take up to four more slots;
+    // stack map frames are not affected, the stack is the same before and after the call
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    SiteClassVisitor visitor = new SiteClassVisitor(writer);
+    reader.accept(visitor, 0);
+    if (visitor.calls == 0) {
+      return null;
+    }
+
+    ++wovenClasses;
+    wovenCalls += visitor.calls;
+    return writer.toByteArray();
+  }
+
+  private static Map<String, String> createSubmits() {
+    Map<String, String> submits = new HashMap<>();
+    submits.put(EXECUTOR + ".execute(Ljava/lang/Runnable;)V", EXECUTOR);
+    // execute() through ExecutorService type has the same counterpart
+    submits.put(EXECUTOR_SERVICE + ".execute(Ljava/lang/Runnable;)V", EXECUTOR);
+    submits.put(EXECUTOR_SERVICE
+        + ".submit(Ljava/util/concurrent/Callable;)Ljava/util/concurrent/Future;",
+        EXECUTOR_SERVICE);
+    submits.put(EXECUTOR_SERVICE
+        + ".submit(Ljava/lang/Runnable;)Ljava/util/concurrent/Future;", EXECUTOR_SERVICE);
+    submits.put(EXECUTOR_SERVICE
+        + ".submit(Ljava/lang/Runnable;Ljava/lang/Object;)Ljava/util/concurrent/Future;",
+        EXECUTOR_SERVICE);
+    submits.put(EXECUTORS + ".wrapTask(Ljava/lang/Runnable;)Ljava/lang/Runnable;", "");
+    submits.put(EXECUTORS + ".supplyAsync(Ljava/util/function/Supplier;)"
+        + "Ljava/util/concurrent/CompletableFuture;", "");
+    submits.put(EXECUTORS + ".supplyAsync(Ljava/util/function/Supplier;"
+        + "Ljava/util/concurrent/Executor;)Ljava/util/concurrent/CompletableFuture;", "");
+    submits.put(EXECUTORS + ".runAsync(Ljava/lang/Runnable;)"
+        + "Ljava/util/concurrent/CompletableFuture;", "");
+    submits.put(EXECUTORS + ".runAsync(Ljava/lang/Runnable;"
+        + "Ljava/util/concurrent/Executor;)Ljava/util/concurrent/CompletableFuture;", "");
+    return submits;
+  }
+
+  /**
+   * Get descriptor of CallSites counterpart: receiver is the first argument,
+   * class and method names of the call site are the last ones.
+   */
+
+  static String siteDescriptor(String descriptor) {
+    int end = descriptor.indexOf(')');
+    return "(L" + EXCEPTION + ";" + descriptor.substring(1, end)
+        + "Ljava/lang/String;Ljava/lang/String;" + descriptor.substring(end);
+  }
+
+  /**
+   * Get descriptor of CallSites counterpart of submit call: receiver, if any, is the first
+   * argument, class, method, source file and line of the call site are the last ones.
+   * @param receiver receiver type, empty for static methods.
+   */
+
+  static String submitDescriptor(String receiver, String descriptor) {
+    int end = descriptor.indexOf(')');
+    String first = receiver.isEmpty() ? "" : "L" + receiver + ";";
+    return "(" + first + descriptor.substring(1, end) + SUBMIT_SITE + descriptor.substring(end);
+  }
+
+  private static final class SiteClassVisitor extends ClassVisitor {
+
+    private String siteClass;
+
+    private String siteFile;
+
+    private int calls = 0;
+
+    SiteClassVisitor(ClassVisitor next) {
+      super(Opcodes.ASM9, next);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature,
+        String superName, String[] interfaces) {
+      // class name as in stack trace elements
+      siteClass = name.replace('/', '.');
+      super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+      siteFile = source;
+      super.visitSource(source, debug);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor,
+        String signature, String[] exceptions) {
+      MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+      return (next == null) ? null : new SiteMethodVisitor(next, name);
+    }
+
+    private final class SiteMethodVisitor extends MethodVisitor {
+
+      private final String siteMethod;
+
+      /**
+       * Line of the current instruction, line numbers are visited before instructions.
+       */
+
+      private int siteLine = -1;
+
+      SiteMethodVisitor(MethodVisitor next, String siteMethod) {
+        super(Opcodes.ASM9, next);
+        this.siteMethod = siteMethod;
+      }
+
+      @Override
+      public void visitLineNumber(int line, Label start) {
+        siteLine = line;
+        super.visitLineNumber(line, start);
+      }
+
+      @Override
+      public void visitMethodInsn(int opcode, String owner, String name, String descriptor,
+          boolean isInterface) {
+        String receiver = SUBMITS.get(owner + '.' + name + descriptor);
+        if (receiver != null
+            && opcode == (receiver.isEmpty() ? Opcodes.INVOKESTATIC : Opcodes.INVOKEINTERFACE)) {
+          super.visitLdcInsn(siteClass);
+          super.visitLdcInsn(siteMethod);
+          if (siteFile == null) {
+            super.visitInsn(Opcodes.ACONST_NULL);
+          } else {
+            super.visitLdcInsn(siteFile);
+          }
+          super.visitLdcInsn(siteLine);
+          super.visitMethodInsn(Opcodes.INVOKESTATIC, CALL_SITES, name,
+              submitDescriptor(receiver, descriptor), false);
+          ++calls;
+          return;
+        }
+
+        if (opcode != Opcodes.INVOKEVIRTUAL || !EXCEPTION.equals(owner)
+            || !WOVEN.contains(name + descriptor)) {
+          super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+          return;
+        }
+
+        super.visitLdcInsn(siteClass);
+        super.visitLdcInsn(siteMethod);
+        super.visitMethodInsn(Opcodes.INVOKESTATIC, CALL_SITES, name,
+            siteDescriptor(descriptor), false);
+        ++calls;
+      }
+    }
+  }
+
+}
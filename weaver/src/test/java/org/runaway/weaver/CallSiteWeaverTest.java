@@ -0,0 +1,206 @@
+package org.runaway.weaver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.runaway.exception.RunawayException;
+import org.runaway.exception.RunawayExecutors;
+
+/**
+ * Weave Fixture class and run it: snapshots belong to the frames of their call sites,
+ * and tasks get the call site of execute() and submit() as their submission site.
+ */
+
+public class CallSiteWeaverTest {
+
+  private static final String FIXTURE = "org.runaway.weaver.fixture.Fixture";
+
+  private static final Pattern FRAME = Pattern.compile("->> \\d+:([\\w.$]+)\\[\\d+\\](.*)");
+
+  private static byte[] woven;
+
+  private static Class<?> fixture;
+
+  private static ExecutorService pool;
+
+  @BeforeClass
+  public static void setUp() throws IOException, ClassNotFoundException {
+    woven = new CallSiteWeaver().weave(read(FIXTURE));
+    assertNotNull("fixture has calls to weave", woven);
+    fixture = new FixtureLoader(woven).loadClass(FIXTURE);
+    pool = RunawayExecutors.wrap(Executors.newSingleThreadExecutor());
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void wovenMethodsAreFinal() {
+    int found = 0;
+    for (Method method: RunawayException.class.getDeclaredMethods()) {
+      if (CallSiteWeaver.WOVEN.contains(method.getName() + Type.getMethodDescriptor(method))) {
+        assertTrue(method.toString(), Modifier.isFinal(method.getModifiers()));
+        ++found;
+      }
+    }
+    assertEquals(CallSiteWeaver.WOVEN.size(), found);
+  }
+
+  @Test
+  public void callsAreRewritten() {
+    List<String> calls = calls(woven);
+    assertFalse(calls.toString(), calls.contains("org/runaway/exception/RunawayException.snap"));
+    assertFalse(calls.toString(), calls.contains("java/util/concurrent/Executor.execute"));
+    assertFalse(calls.toString(), calls.contains("java/util/concurrent/ExecutorService.submit"));
+    assertTrue(calls.toString(), calls.contains("org/runaway/exception/CallSites.snap"));
+    assertTrue(calls.toString(), calls.contains("org/runaway/exception/CallSites.snapNow"));
+    assertTrue(calls.toString(), calls.contains("org/runaway/exception/CallSites.at"));
+    assertTrue(calls.toString(), calls.contains("org/runaway/exception/CallSites.execute"));
+    assertTrue(calls.toString(), calls.contains("org/runaway/exception/CallSites.submit"));
+  }
+
+  @Test
+  public void weavingAgainChangesNothing() {
+    assertNull(new CallSiteWeaver().weave(woven));
+  }
+
+  @Test
+  public void snapshotsOfRecursiveMethodBelongToTheirFrames() throws Exception {
+    String rendered = invoke("recurse", 3).toString();
+
+    List<String> snapped = new ArrayList<>();
+    Matcher frame = FRAME.matcher(rendered);
+    while (frame.find()) {
+      if (frame.group(1).equals(FIXTURE + ".recurse")) {
+        snapped.add(frame.group(2));
+      }
+    }
+    assertEquals(rendered, 4, snapped.size());
+    for (int depth = 0; depth < 4; depth++) {
+      assertEquals(rendered, ": [depth=" + depth + "]", snapped.get(depth));
+    }
+  }
+
+  @Test
+  public void snapshotsOfCallerBelongToCallerFrame() throws Exception {
+    String rendered = invoke("caller").toString();
+
+    Matcher frame = FRAME.matcher(rendered);
+    assertTrue(rendered, frame.find());
+    assertEquals(rendered, FIXTURE + ".create", frame.group(1));
+    assertEquals(rendered, "", frame.group(2));
+    assertTrue(rendered, frame.find());
+    assertEquals(rendered, FIXTURE + ".caller", frame.group(1));
+    assertEquals(rendered, ": [batch=1][now=value]", frame.group(2));
+  }
+
+  @Test
+  public void executeCallIsSubmissionSite() throws Exception {
+    assertSubmittedAt("execute", invoke("execute", pool).toString());
+  }
+
+  @Test
+  public void submitCallIsSubmissionSite() throws Exception {
+    assertSubmittedAt("submit", invoke("submit", pool).toString());
+  }
+
+  private static void assertSubmittedAt(String method, String rendered) {
+    // woven call site is the only frame, a stack walk would record two
+    Pattern site = Pattern.compile("\nSubmitted by thread \\d+ at: "
+        + Pattern.quote(FIXTURE + "." + method) + "\\[\\d+\\]\n");
+    assertTrue(rendered, site.matcher(rendered).find());
+  }
+
+  private static RunawayException invoke(String name, Object... args) throws Exception {
+    for (Method method: fixture.getMethods()) {
+      if (method.getName().equals(name)) {
+        return (RunawayException) method.invoke(null, args);
+      }
+    }
+    throw new NoSuchMethodException(name);
+  }
+
+  private static byte[] read(String className) throws IOException {
+    try (InputStream in = CallSiteWeaverTest.class.getResourceAsStream(
+        "/" + className.replace('.', '/') + ".class")) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int count; (count = in.read(buffer)) > 0; ) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Get owner.name of the method calls of class.
+   */
+
+  private static List<String> calls(byte[] classBytes) {
+    List<String> calls = new ArrayList<>();
+    new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM9) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor,
+          String signature, String[] exceptions) {
+        return new MethodVisitor(Opcodes.ASM9) {
+          @Override
+          public void visitMethodInsn(int opcode, String owner, String method,
+              String methodDescriptor, boolean isInterface) {
+            calls.add(owner + '.' + method);
+          }
+        };
+      }
+    }, 0);
+    return calls;
+  }
+
+  /**
+   * Loader of woven fixture class, other classes are loaded by the parent.
+   */
+
+  private static final class FixtureLoader extends ClassLoader {
+
+    private final byte[] fixtureBytes;
+
+    FixtureLoader(byte[] fixtureBytes) {
+      super(CallSiteWeaverTest.class.getClassLoader());
+      this.fixtureBytes = fixtureBytes;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(FIXTURE)) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> loaded = findLoadedClass(name);
+        return (loaded != null) ? loaded : defineClass(name, fixtureBytes, 0, fixtureBytes.length);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+package org.runaway.weaver.fixture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import org.runaway.exception.RunawayException;
+
+/**
+ * Application class woven by CallSiteWeaverTest.
+ */
+
+public final class Fixture {
+
+  private Fixture() {
+  }
+
+  /**
+   * Snap in every frame of recursive method, each snapshot belongs to its own frame.
+   */
+
+  public static RunawayException recurse(int depth) {
+    if (depth == 0) {
+      RunawayException exception = new RunawayException("bottom");
+      exception.snap("depth", depth);
+      return exception;
+    }
+    RunawayException exception = recurse(depth - 1);
+    exception.snap("depth", depth);
+    return exception;
+  }
+
+  /**
+   * Snap by batch and by snapNow() in the caller of the method creating exception.
+   */
+
+  public static RunawayException caller() {
+    RunawayException exception = create();
+    exception.at().snap("batch", 1).commit();
+    exception.snapNow("now", "value");
+    return exception;
+  }
+
+  private static RunawayException create() {
+    return new RunawayException("created");
+  }
+
+  public static RunawayException execute(Executor executor)
+      throws InterruptedException, ExecutionException {
+    CompletableFuture<RunawayException> result = new CompletableFuture<>();
+    executor.execute(() -> result.complete(new RunawayException("executed")));
+    return result.get();
+  }
+
+  public static RunawayException submit(ExecutorService executor)
+      throws InterruptedException, ExecutionException {
+    return executor.submit(() -> new RunawayException("submitted")).get();
+  }
+
+}